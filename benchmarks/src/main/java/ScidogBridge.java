@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfPoint;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import scidog.bench.Scidog;
+
+public class ScidogBridge implements Scidog {
+
+    @Override
+    public Mat resource(final String name) {
+        try (InputStream in = Segmenter.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("no bundled image " + name);
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            in.transferTo(bytes);
+            return Imgcodecs.imdecode(new MatOfByte(bytes.toByteArray()), Imgcodecs.IMREAD_COLOR);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Object segment(final Mat image) throws SegmentationException {
+        return Segmenter.segment(image);
+    }
+
+    @Override
+    public Mat sobel(final Mat gray, final int order, final int kernelSize) {
+        return Imager.sobel(gray, order, kernelSize);
+    }
+
+    @Override
+    public Mat scharr(final Mat gray) {
+        return Imager.scharr(gray);
+    }
+
+    @Override
+    public Mat mean(final Mat... mats) {
+        return Imager.mean(mats);
+    }
+
+    @Override
+    public Mat omnigradient(final Mat gray) {
+        return Omnigradient.compute(gray);
+    }
+
+    @Override
+    public double[][] channelValues(final Mat mat) {
+        return Imager.channelValues(mat);
+    }
+
+    @Override
+    public double[][] percentiles(final double[][] data, final double... percentiles) {
+        return Stats.percentiles(data, percentiles);
+    }
+
+    @Override
+    public double[][] percentiles(final Mat mat, final double... percentiles) {
+        return Stats.percentiles(mat, percentiles);
+    }
+
+    @Override
+    public Object contour(final MatOfPoint edges) {
+        return new Contour(edges);
+    }
+
+    @Override
+    public Object scale(final Object contour, final double factor) {
+        return ((Contour) contour).scale(factor);
+    }
+
+    @Override
+    public Object largestBySort(final Mat binary) {
+        final List<MatOfPoint> contours = new ArrayList<>();
+        final Mat hierarchy = new Mat();
+        Imgproc.findContours(binary, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
+        hierarchy.release();
+        Collections.sort(contours, (c1, c2) -> Double.compare(Imgproc.contourArea(c2), Imgproc.contourArea(c1)));
+        return new Contour(contours.get(0));
+    }
+
+    @Override
+    public Object regions(final Mat binary, final boolean components, final int topK) {
+        return RegionExtractor.LARGEST.withTopK(topK).withBackend(components
+                ? RegionExtractor.Backend.COMPONENTS : RegionExtractor.Backend.CONTOURS).extract(binary);
+    }
+
+    @Override
+    public double geometry(final Object object) {
+        final Contour contour = (Contour) object;
+        return contour.area() + contour.perimeter() + contour.centroid().x + contour.moments().nu11
+                + contour.convexHullArea() + contour.convexHullPerimeter();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/* Compares a JMH CSV result file with the committed baseline and exits with status 1 when
+ * a time or allocation score regressed, that is when the result's confidence interval
+ * (score - error) lies entirely above the baseline's (score + error). JMH reports the error
+ * at 99.9%, so overlapping intervals are treated as noise however large the change looks;
+ * record both files with enough forks and iterations to keep the intervals tight.
+ *
+ *     java -cp target/benchmarks.jar scidog.bench.BaselineComparator baseline/baseline.csv results.csv */
+public class BaselineComparator {
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineComparator <baseline.csv> <results.csv>");
+            System.exit(2);
+        }
+        final Map<String, Score> baseline = read(Paths.get(args[0]));
+        final Map<String, Score> results = read(Paths.get(args[1]));
+        int regressions = 0;
+        for (final Map.Entry<String, Score> result : results.entrySet()) {
+            final Score before = baseline.get(result.getKey());
+            final Score after = result.getValue();
+            if (before == null || before.score == 0) {
+                System.out.printf(Locale.ROOT, "  new        %-90s %14.3f +- %-12.3f%n", result.getKey(), after.score,
+                        after.error);
+                continue;
+            }
+            final boolean regressed = after.lower() > before.upper();
+            regressions += regressed ? 1 : 0;
+            System.out.printf(Locale.ROOT, "%s %+8.1f%%  %-90s %14.3f +- %-12.3f -> %14.3f +- %-12.3f%n",
+                    regressed ? "!!" : "  ", 100 * (after.score / before.score - 1), result.getKey(), before.score,
+                    before.error, after.score, after.error);
+        }
+        System.out.println(regressions + " regression(s) outside the baseline's confidence interval");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /* a score and its confidence half-width; a single sample has no error, reported by JMH as NaN */
+    static final class Score {
+
+        final double score;
+        final double error;
+
+        Score(final double score, final double error) {
+            this.score = score;
+            this.error = Double.isNaN(error) ? 0 : error;
+        }
+
+        double lower() {
+            return score - error;
+        }
+
+        double upper() {
+            return score + error;
+        }
+    }
+
+    /* scores by benchmark and parameters; only metrics where lower is better are kept */
+    static Map<String, Score> read(final Path csv) throws IOException {
+        final List<String> lines = Files.readAllLines(csv);
+        final List<String> header = split(lines.get(0));
+        final int error = header.indexOf("Score Error (99.9%)");
+        final Map<String, Score> scores = new LinkedHashMap<>();
+        for (final String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            final List<String> cells = split(line);
+            final String benchmark = cells.get(header.indexOf("Benchmark"));
+            final String unit = cells.get(header.indexOf("Unit"));
+            if (!unit.endsWith("/op") || unit.startsWith("ops/")) {
+                continue;
+            }
+            final StringBuilder key = new StringBuilder(benchmark);
+            for (int x = 0; x < header.size(); x++) {
+                if (header.get(x).startsWith("Param: ") && x < cells.size() && !cells.get(x).isEmpty()) {
+                    key.append(' ').append(header.get(x).substring("Param: ".length())).append('=').append(cells.get(x));
+                }
+            }
+            key.append(" [").append(unit).append(']');
+            scores.put(key.toString(), new Score(Double.parseDouble(cells.get(header.indexOf("Score"))),
+                    (error < 0) ? 0 : Double.parseDouble(cells.get(error))));
+        }
+        return scores;
+    }
+
+    private static List<String> split(final String line) {
+        final List<String> cells = new ArrayList<>();
+        final StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int x = 0; x < line.length(); x++) {
+            final char c = line.charAt(x);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.MatOfPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Contour construction and scaling for CHAIN_APPROX_NONE sized contours */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ContourBenchmark {
+
+    @Param({"1000", "10000"})
+    public int points;
+
+    private Scidog     scidog;
+    private MatOfPoint edges;
+    private Object     contour;
+
+    @Setup
+    public void setup() {
+        scidog = Scidog.load();
+        edges = Images.contour(points);
+        contour = scidog.contour(edges);
+    }
+
+    @TearDown
+    public void tearDown() {
+        edges.release();
+    }
+
+    @Benchmark
+    public Object construct() {
+        return scidog.contour(edges);
+    }
+
+    /* construct alone is lazy now; this pays for everything the eager constructor computed */
+    @Benchmark
+    public double constructAndMeasure() {
+        return scidog.geometry(scidog.contour(edges));
+    }
+
+    @Benchmark
+    public Object scale() {
+        return scidog.scale(contour, 2.5);
+    }
+}
\ No newline at end of file
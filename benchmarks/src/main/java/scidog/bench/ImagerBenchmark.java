@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* the gradient, averaging and pixel extraction helpers at SCIDOG's working resolutions */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ImagerBenchmark {
+
+    @Param({"256", "512"})
+    public int resolution;
+
+    private Scidog scidog;
+    private Mat    image;
+    private Mat    gray;
+    private Mat[]  gradients;
+
+    @Setup
+    public void setup() {
+        scidog = Scidog.load();
+        image = Images.syntheticLesion(resolution);
+        gray = Images.gray(image);
+        gradients = new Mat[15];
+        gradients[0] = scidog.scharr(gray);
+        for (int x = 1; x < gradients.length; x++) {
+            gradients[x] = scidog.sobel(gray, 1, x * 2 + 3);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.release();
+        gray.release();
+        for (final Mat gradient : gradients) {
+            gradient.release();
+        }
+    }
+
+    @Benchmark
+    public Mat scharr() {
+        return release(scidog.scharr(gray));
+    }
+
+    @Benchmark
+    public Mat sobel5() {
+        return release(scidog.sobel(gray, 1, 5));
+    }
+
+    @Benchmark
+    public Mat sobel31() {
+        return release(scidog.sobel(gray, 1, 31));
+    }
+
+    @Benchmark
+    public Mat mean() {
+        return release(scidog.mean(gradients));
+    }
+
+    /* the 15 operator bank followed by the mean, as SCIDOG computed it per iteration */
+    @Benchmark
+    public Mat omnigradientReference() {
+        final Mat[] mats = new Mat[15];
+        mats[0] = scidog.scharr(gray);
+        for (int x = 1; x < mats.length; x++) {
+            mats[x] = scidog.sobel(gray, 1, x * 2 + 3);
+        }
+        final Mat mean = scidog.mean(mats);
+        for (final Mat mat : mats) {
+            mat.release();
+        }
+        return release(mean);
+    }
+
+    @Benchmark
+    public Mat omnigradient() {
+        return release(scidog.omnigradient(gray));
+    }
+
+    @Benchmark
+    public double[][] channelValues() {
+        return scidog.channelValues(image);
+    }
+
+    private static Mat release(final Mat mat) {
+        mat.release();
+        return mat;
+    }
+}
\ No newline at end of file
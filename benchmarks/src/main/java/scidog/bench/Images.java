@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.util.Random;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/* deterministic synthetic inputs for the benchmarks */
+final class Images {
+
+    private Images() {
+    }
+
+    /* a dark, irregular lesion on a noisy skin-toned background, resolution pixels on the long side */
+    static Mat syntheticLesion(final int resolution) {
+        final int width = resolution;
+        final int height = resolution * 3 / 4;
+        final Mat image = new Mat(height, width, CvType.CV_8UC3, new Scalar(150, 170, 215));
+        final Mat noise = new Mat(height, width, CvType.CV_8UC3);
+        Core.setRNGSeed(42);
+        Core.randn(noise, 0, 12);
+        Core.add(image, noise, image);
+        noise.release();
+        final Point center = new Point(width * 0.52, height * 0.48);
+        Imgproc.ellipse(image, center, new Size(width * 0.18, height * 0.22), 20, 0, 360,
+                new Scalar(70, 80, 110), -1);
+        Imgproc.ellipse(image, new Point(center.x + width * 0.08, center.y), new Size(width * 0.09, height * 0.12),
+                -35, 0, 360, new Scalar(50, 55, 85), -1);
+        Imgproc.GaussianBlur(image, image, new Size(0, 0), Math.max(1, resolution / 256d));
+        return image;
+    }
+
+    /* a binary threshold with two lesions among speckle of the given density in [0, 1] */
+    static Mat speckledThreshold(final int resolution, final double density) {
+        final Mat threshold = new Mat(resolution, resolution, CvType.CV_8U);
+        Core.setRNGSeed(42);
+        Core.randu(threshold, 0, 256);
+        Imgproc.threshold(threshold, threshold, 255 * (1 - density), 255, Imgproc.THRESH_BINARY);
+        Imgproc.circle(threshold, new Point(resolution * 0.3, resolution * 0.3), resolution / 8, Scalar.all(255), -1);
+        Imgproc.circle(threshold, new Point(resolution * 0.7, resolution * 0.6), resolution / 12, Scalar.all(255), -1);
+        return threshold;
+    }
+
+    static Mat gray(final Mat image) {
+        final Mat gray = new Mat();
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        return gray;
+    }
+
+    /* a closed, jittered, roughly circular contour of the given number of points */
+    static MatOfPoint contour(final int points) {
+        final Random random = new Random(7);
+        final double radius = points / (2 * Math.PI);
+        final Point[] edges = new Point[points];
+        for (int x = 0; x < points; x++) {
+            final double angle = 2 * Math.PI * x / points;
+            final double r = radius * (1 + 0.05 * Math.sin(7 * angle)) + random.nextInt(3);
+            edges[x] = new Point(Math.round(radius * 1.2 + r * Math.cos(angle)),
+                    Math.round(radius * 1.2 + r * Math.sin(angle)));
+        }
+        return new MatOfPoint(edges);
+    }
+}
\ No newline at end of file
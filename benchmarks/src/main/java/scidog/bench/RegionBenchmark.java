@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package scidog.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* region extraction from a 1024x1024 threshold with increasingly many speckle fragments */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class RegionBenchmark {
+
+    @Param({"0.001", "0.02"})
+    public double density;
+
+    private Scidog scidog;
+    private Mat    threshold;
+
+    @Setup
+    public void setup() {
+        scidog = Scidog.load();
+        threshold = Images.speckledThreshold(1024, density);
+    }
+
+    @TearDown
+    public void tearDown() {
+        threshold.release();
+    }
+
+    @Benchmark
+    public Object sortAll() {
+        return scidog.largestBySort(threshold);
+    }
+
+    @Benchmark
+    public Object contours() {
+        return scidog.regions(threshold, false, 2);
+    }
+
+    @Benchmark
+    public Object components() {
+        return scidog.regions(threshold, true, 2);
+    }
+}
\ No newline at end of file
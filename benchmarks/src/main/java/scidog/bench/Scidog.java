@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/* JMH refuses benchmarks in the default package and named packages cannot import the
+ * default package SCIDOG classes, so benchmarks reach them through this interface,
+ * implemented by the default package ScidogBridge. Contours are passed around opaquely. */
+public interface Scidog {
+
+    static Scidog load() {
+        nu.pattern.OpenCV.loadLocally();
+        try {
+            return (Scidog) Class.forName("ScidogBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ScidogBridge is missing from the benchmark classpath", e);
+        }
+    }
+
+    Mat resource(String name);
+
+    Object segment(Mat image) throws Exception;
+
+    Mat sobel(Mat gray, int order, int kernelSize);
+
+    Mat scharr(Mat gray);
+
+    Mat mean(Mat... mats);
+
+    Mat omnigradient(Mat gray);
+
+    double[][] channelValues(Mat mat);
+
+    double[][] percentiles(double[][] data, double... percentiles);
+
+    double[][] percentiles(Mat mat, double... percentiles);
+
+    Object contour(MatOfPoint edges);
+
+    Object scale(Object contour, double factor);
+
+    /* the largest region of a binary image, the old way: RETR_TREE and a sort by contourArea */
+    Object largestBySort(Mat binary);
+
+    /* the topK largest regions of a binary image through RegionExtractor */
+    Object regions(Mat binary, boolean components, int topK);
+
+    /* reads every derived property of a contour and folds them into one value */
+    double geometry(Object contour);
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Segmenter.segment end to end on the bundled images and on synthetic images */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class SegmenterBenchmark {
+
+    @Param({"melanoma.jpg", "naevus.jpg", "synthetic-256", "synthetic-512", "synthetic-1024", "synthetic-2048"})
+    public String image;
+
+    private Scidog scidog;
+    private Mat    src;
+
+    @Setup
+    public void setup() {
+        scidog = Scidog.load();
+        src = image.startsWith("synthetic-")
+                ? Images.syntheticLesion(Integer.parseInt(image.substring("synthetic-".length())))
+                : scidog.resource(image);
+    }
+
+    @TearDown
+    public void tearDown() {
+        src.release();
+    }
+
+    @Benchmark
+    public Object segment() throws Exception {
+        return scidog.segment(src);
+    }
+}
\ No newline at end of file
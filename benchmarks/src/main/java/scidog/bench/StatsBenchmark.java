@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package scidog.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* channel medians at the pixel counts contrastMultiplier sees: 512x384 and 1024x768 */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class StatsBenchmark {
+
+    @Param({"512", "1024"})
+    public int resolution;
+
+    private Scidog     scidog;
+    private Mat        image;
+    private double[][] channelValues;
+
+    @Setup
+    public void setup() {
+        scidog = Scidog.load();
+        image = Images.syntheticLesion(resolution);
+        channelValues = scidog.channelValues(image);
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.release();
+    }
+
+    /* the sorting path on values already extracted from the Mat */
+    @Benchmark
+    public double[][] sortedPercentiles() {
+        return scidog.percentiles(channelValues, 0.5);
+    }
+
+    /* the path contrastMultiplier takes, straight from the Mat */
+    @Benchmark
+    public double[][] matPercentiles() {
+        return scidog.percentiles(image, 0.5);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/* Headless batch front end for Segmenter.segment. Images are segmented on a fixed worker
+ * pool; at most maxInFlight images are in flight at once so native memory stays bounded.
+ * A separate reader pool maps and decodes each image as soon as it enters the window, so
+ * file I/O and decoding overlap with the segmentation of earlier images. The OpenCV
+ * native library must be loaded before segmenting. */
+public class BatchSegmenter implements AutoCloseable {
+
+    public static final Set<String> IMAGE_EXTENSIONS = Set.of(
+            "bmp", "jpeg", "jpg", "jpe", "jp2", "png", "tif", "tiff", "webp", "pbm", "pgm", "ppm");
+
+    public static class Result {
+
+        public final File                   file;
+        public final Contour                contour;
+        public final SegmentationException  failure;
+        public final long                   nanos;
+        /* convergence iterations, 0 when the image failed before the loop */
+        public final int                    iterations;
+        /* how the convergence loop ended, null when the image failed or came from the cache */
+        public final Segmenter.Termination  termination;
+
+        private Result(final File file, final Contour contour, final SegmentationException failure, final long nanos,
+                final int iterations, final Segmenter.Termination termination) {
+            this.file        = file;
+            this.contour     = contour;
+            this.failure     = failure;
+            this.nanos       = nanos;
+            this.iterations  = iterations;
+            this.termination = termination;
+        }
+
+        public boolean succeeded() {
+            return this.failure == null;
+        }
+    }
+
+    public static class Report {
+
+        public final List<Result> results;
+        public final long         nanos;
+
+        private Report(final List<Result> results, final long nanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.nanos   = nanos;
+        }
+
+        public long succeeded() {
+            return results.stream().filter(Result::succeeded).count();
+        }
+
+        public long failed() {
+            return results.size() - succeeded();
+        }
+
+        public double imagesPerSecond() {
+            return (nanos == 0) ? 0 : results.size() / (nanos / 1e9);
+        }
+    }
+
+    private final ExecutorService      executor;
+    private final ExecutorService      readers;
+    private final Semaphore            inFlight;
+    private final SegmenterOptions     options;
+    private final SegmentationCache    cache;
+
+    public BatchSegmenter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchSegmenter(final int workers) {
+        this(workers, 2 * workers);
+    }
+
+    public BatchSegmenter(final int workers, final int maxInFlight) {
+        this(workers, maxInFlight, JfrSegmentationListener.INSTANCE);
+    }
+
+    /* the listener is shared by all workers, so it must be thread-safe (see SegmentationMetrics) */
+    public BatchSegmenter(final int workers, final int maxInFlight, final SegmentationListener listener) {
+        this(workers, maxInFlight, SegmenterOptions.DEFAULT.withListener(listener));
+    }
+
+    public BatchSegmenter(final int workers, final int maxInFlight, final SegmenterOptions options) {
+        this(workers, maxInFlight, options, null);
+    }
+
+    /* with a cache, images segmented before are answered from it without decoding them */
+    public BatchSegmenter(final int workers, final int maxInFlight, final SegmenterOptions options,
+            final SegmentationCache cache) {
+        if (workers < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("workers and maxInFlight must be positive");
+        }
+        this.executor = Executors.newFixedThreadPool(workers, MatPool.daemons("scidog-worker-"));
+        this.readers = Executors.newFixedThreadPool(Math.max(1, workers / 2), MatPool.daemons("scidog-reader-"));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.options  = options;
+        this.cache    = cache;
+    }
+
+    public static List<File> listImages(final File directory) {
+        final File[] files = directory.listFiles(file -> file.isFile() && IMAGE_EXTENSIONS.contains(extension(file)));
+        if (files == null) {
+            throw new IllegalArgumentException(directory + " is not a readable directory");
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static String extension(final File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return (dot < 0) ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    public Report segment(final File directory) throws InterruptedException {
+        return segment(listImages(directory));
+    }
+
+    public Report segment(final List<File> files) throws InterruptedException {
+        return segment(files.stream());
+    }
+
+    /* results are returned in the order of the input stream */
+    public Report segment(final Stream<File> files) throws InterruptedException {
+        final long start = System.nanoTime();
+        final List<Future<Result>> futures = new ArrayList<>();
+        submitAll(files, task -> futures.add(executor.submit(task)));
+        final List<Result> results = new ArrayList<>(futures.size());
+        for (final Future<Result> future : futures) {
+            results.add(await(future));
+        }
+        return new Report(results, System.nanoTime() - start);
+    }
+
+    /* results are passed to the consumer on the calling thread in completion order */
+    public Report segment(final Stream<File> files, final Consumer<Result> consumer) throws InterruptedException {
+        final long start = System.nanoTime();
+        final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        final AtomicInteger submitted = new AtomicInteger();
+        final List<Result> results = new ArrayList<>();
+        submitAll(files, task -> {
+            completion.submit(task);
+            submitted.incrementAndGet();
+            Future<Result> done;
+            while ((done = completion.poll()) != null) {
+                final Result result = await(done);
+                results.add(result);
+                consumer.accept(result);
+            }
+        });
+        while (results.size() < submitted.get()) {
+            final Result result = await(completion.take());
+            results.add(result);
+            consumer.accept(result);
+        }
+        return new Report(results, System.nanoTime() - start);
+    }
+
+    private interface Submitter {
+        void submit(SegmentationTask task) throws InterruptedException;
+    }
+
+    private void submitAll(final Stream<File> files, final Submitter submitter) throws InterruptedException {
+        for (final File file : (Iterable<File>) files::iterator) {
+            inFlight.acquire();
+            try {
+                /* with a cache the task reads the file itself, since hits need no decoding */
+                submitter.submit(new SegmentationTask(file,
+                        (cache == null) ? readers.submit(() -> Imager.read(file, options)) : null));
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+    }
+
+    private static Result await(final Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            /* SegmentationTask catches everything it can; anything else is a bug or a fatal error */
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private class SegmentationTask implements Callable<Result> {
+
+        private final File                   file;
+        private final Future<Imager.Decoded> decoded;
+
+        SegmentationTask(final File file, final Future<Imager.Decoded> decoded) {
+            this.file    = file;
+            this.decoded = decoded;
+        }
+
+        @Override
+        public Result call() {
+            final long start = System.nanoTime();
+            final int[] iterations = new int[1];
+            final Segmenter.Termination[] termination = new Segmenter.Termination[1];
+            final SegmentationListener counter = new SegmentationListener() {
+                @Override
+                public void terminated(final Segmenter.Termination how) {
+                    termination[0] = how;
+                }
+
+                @Override
+                public void completed(final int count, final long nanos, final boolean succeeded) {
+                    iterations[0] = count;
+                }
+            };
+            final SegmenterOptions counted = options.withListener(SegmentationListener.tee(options.listener, counter));
+            Imager.Decoded image = null;
+            try {
+                if (cache != null) {
+                    return new Result(file, cache.segment(file, counted), null, System.nanoTime() - start,
+                            iterations[0], termination[0]);
+                }
+                image = decoded.get();
+                if (image.image.empty()) {
+                    throw new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE,
+                            "could not decode " + file);
+                }
+                final Contour contour = image.toOriginal(List.of(Segmenter.segment(image.image, counted))).get(0);
+                return new Result(file, contour, null, System.nanoTime() - start, iterations[0], termination[0]);
+            } catch (ExecutionException e) {
+                return new Result(file, null, new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE,
+                        e.getCause().toString(), e.getCause()), System.nanoTime() - start, iterations[0], null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Result(file, null, new SegmentationException(SegmentationException.Reason.PROCESSING_ERROR,
+                        "interrupted while reading " + file, e), System.nanoTime() - start, iterations[0], null);
+            } catch (IOException e) {
+                return new Result(file, null, new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE,
+                        e.toString(), e), System.nanoTime() - start, iterations[0], null);
+            } catch (SegmentationException e) {
+                return new Result(file, null, e, System.nanoTime() - start, iterations[0], null);
+            } catch (RuntimeException e) {
+                return new Result(file, null, new SegmentationException(SegmentationException.Reason.PROCESSING_ERROR,
+                        e.getMessage(), e), System.nanoTime() - start, iterations[0], null);
+            } finally {
+                if (image != null) {
+                    image.release();
+                }
+                if (MatPool.DEBUG) {
+                    MatPool.reportOutstanding(System.err);
+                }
+                inFlight.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        readers.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            readers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            readers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String summarize(final Report report) {
+        return String.format(Locale.ROOT, "%d images (%d failed) in %.2f s: %.2f images/sec",
+                report.results.size(), report.failed(), report.nanos / 1e9, report.imagesPerSecond());
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: BatchSegmenter <directory|image>... [--workers N] [--in-flight N]"
+                    + " [--size N] [--pyramid N] [--reduced-decode] [--max-iterations N] [--deadline-ms N]"
+                    + " [--tile N] [--cache DIR]");
+            System.exit(2);
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        int maxInFlight = -1;
+        SegmenterOptions options = SegmenterOptions.DEFAULT;
+        SegmentationCache cache = null;
+        final List<File> files = new ArrayList<>();
+        for (int x = 0; x < args.length; x++) {
+            if ("--workers".equals(args[x])) {
+                workers = Integer.parseInt(args[++x]);
+            } else if ("--in-flight".equals(args[x])) {
+                maxInFlight = Integer.parseInt(args[++x]);
+            } else if ("--size".equals(args[x])) {
+                final int size = Integer.parseInt(args[++x]);
+                options = options.withMaxSize(size, size);
+            } else if ("--pyramid".equals(args[x])) {
+                options = options.withPyramid(Integer.parseInt(args[++x]));
+            } else if ("--reduced-decode".equals(args[x])) {
+                options = options.withReducedDecode(true);
+            } else if ("--max-iterations".equals(args[x])) {
+                options = options.withMaxIterations(Integer.parseInt(args[++x]));
+            } else if ("--deadline-ms".equals(args[x])) {
+                options = options.withDeadline(Long.parseLong(args[++x]), TimeUnit.MILLISECONDS);
+            } else if ("--tile".equals(args[x])) {
+                options = options.withTiles(Integer.parseInt(args[++x]));
+            } else if ("--cache".equals(args[x])) {
+                cache = new SegmentationCache(new File(args[++x]), 256L << 20);
+            } else {
+                final File file = new File(args[x]);
+                files.addAll(file.isDirectory() ? listImages(file) : List.of(file));
+            }
+        }
+        nu.pattern.OpenCV.loadShared();
+        final SegmentationMetrics metrics = new SegmentationMetrics();
+        try (BatchSegmenter batch = new BatchSegmenter(workers, (maxInFlight < 1) ? 2 * workers : maxInFlight,
+                options.withListener(SegmentationListener.tee(options.listener, metrics)), cache)) {
+            final Report report = batch.segment(files.stream(), result -> {
+                if (result.succeeded()) {
+                    System.out.printf(Locale.ROOT, "%s\tarea=%.1f\tperimeter=%.1f\titerations=%d%s\t%.1f ms%n",
+                            result.file, result.contour.area(), result.contour.perimeter(), result.iterations,
+                            (result.termination == null || result.termination == Segmenter.Termination.CONVERGED)
+                                    ? "" : " (" + result.termination + ")", result.nanos / 1e6);
+                } else {
+                    System.out.printf(Locale.ROOT, "%s\t%s\t%s%n",
+                            result.file, result.failure.reason, result.failure.getMessage());
+                }
+            });
+            System.out.println(summarize(report));
+            System.out.println(metrics.summary());
+            if (cache != null) {
+                System.out.println(cache.counters());
+            }
+            System.out.println(report.results.stream().filter(r -> !r.succeeded())
+                    .map(r -> r.failure.reason).collect(Collectors.groupingBy(r -> r, Collectors.counting())));
+        }
+    }
+}
\ No newline at end of file
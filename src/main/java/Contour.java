@@ -15,18 +15,19 @@
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
 
+/* A closed contour held as interleaved x, y float coordinates. Its geometry is computed
+ * in Java on first use and cached, so callers pay only for the properties they read, and
+ * scale maps the coordinates and every cached property analytically instead of
+ * recomputing them. The MatOfPoint needed for drawing is likewise built on demand. */
 public class Contour {
     
     public static final int    CENTROID_RADIUS   = 5;
@@ -35,64 +36,315 @@ public class Contour {
     public static final Scalar CONVEX_HULL_COLOR = new Scalar(255,   0,   0);
     public static final Scalar CENTROID_COLOR    = new Scalar(  0,   0, 255);
 
-    public final MatOfPoint             edges;
-    public final Moments                moments;
-    public final Point                  centroid;
-    public final double                 perimeter;
-    public final double                 area;
-    public final ArrayList<MatOfPoint>  convexHull;
-    public final double                 convexHullPerimeter;
-    public final double                 convexHullArea;
+    private final float[] coordinates;
 
-    public Contour(MatOfPoint edges) {
-        this.edges               = edges;
-        this.moments             = Imgproc.moments(this.edges);
-        this.centroid            = new Point(moments.get_m10() / moments.get_m00(),
-                                             moments.get_m01() / moments.get_m00());
-        this.perimeter           = Imgproc.arcLength(new MatOfPoint2f(edges.toArray()), true);
-        this.area                = Imgproc.contourArea(this.edges);
-        this.convexHull          = calculateConvexHull();
-        this.convexHullPerimeter = Imgproc.arcLength(new MatOfPoint2f(convexHull.get(0).toArray()), true);
-        this.convexHullArea      = Imgproc.contourArea(convexHull.get(0));
-    }
-    
-    public Contour scale(final double scaleFactor){
-        return new Contour(new MatOfPoint(this.edges.toList().stream().map(p ->
-                new Point(p.x * scaleFactor, p.y * scaleFactor)).toArray(Point[]::new)));
-    }
-    
-    private ArrayList<MatOfPoint> calculateConvexHull() {
-        final List<MatOfPoint> edgesList = Arrays.asList(edges);
-        final ArrayList<MatOfInt> hull = new ArrayList<>();
-        edgesList.stream().forEach(point -> {
-            MatOfInt matOfInt = new MatOfInt();
-            Imgproc.convexHull(point, matOfInt);
-            hull.add(matOfInt);
-        });
+    private MatOfPoint edges;
+    private Moments    moments;
+    private Point      centroid;
+    private Contour    convexHull;
+    private double     perimeter = Double.NaN;
+    private double     area      = Double.NaN;
 
-        ArrayList<MatOfPoint> convexHull = new ArrayList<>();
-        for (int x = 0; x < hull.size(); x++) {
-            Point[] points = new Point[hull.get(x).rows()];
-            for (int y = 0; y < hull.get(x).rows(); y++) {
-                int index = (int) hull.get(x).get(y, 0)[0];
-                points[y] = new Point(edgesList.get(x).get(index, 0)[0], edgesList.get(x).get(index, 0)[1]);
+    public Contour(final MatOfPoint edges) {
+        final int[] points = new int[2 * (int) edges.total()];
+        edges.get(0, 0, points);
+        this.coordinates = new float[points.length];
+        for (int x = 0; x < points.length; x++) {
+            this.coordinates[x] = points[x];
+        }
+        this.edges = edges;
+    }
+    
+    /* takes ownership of x0, y0, x1, y1, ...; the array must not be modified afterwards */
+    public Contour(final float[] coordinates) {
+        if (coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("coordinates must come in x, y pairs");
+        }
+        this.coordinates = coordinates;
+    }
+    
+    /* a contour whose geometry was computed earlier, e.g. read back by SegmentationCache */
+    Contour(final float[] coordinates, final Moments moments, final double area, final double perimeter,
+            final Contour convexHull) {
+        this(coordinates);
+        this.moments    = moments;
+        this.area       = area;
+        this.perimeter  = perimeter;
+        this.convexHull = convexHull;
+    }
+    
+    public int size() {
+        return coordinates.length / 2;
+    }
+    
+    public float x(final int point) {
+        return coordinates[2 * point];
+    }
+    
+    public float y(final int point) {
+        return coordinates[2 * point + 1];
+    }
+    
+    /* the interleaved coordinates themselves, not a copy; they must not be modified */
+    public float[] coordinates() {
+        return coordinates;
+    }
+    
+    /* the contour rounded to integer pixels, for drawing and OpenCV calls */
+    public synchronized MatOfPoint edges() {
+        if (edges == null) {
+            final int[] points = new int[coordinates.length];
+            for (int x = 0; x < points.length; x++) {
+                points[x] = Math.round(coordinates[x]);
             }
-            MatOfPoint matOfPoint = new MatOfPoint();
-            matOfPoint.fromArray(points);
-            convexHull.add(matOfPoint);
+            edges = new MatOfPoint();
+            if (points.length > 0) {
+                edges.alloc(size());
+                edges.put(0, 0, points);
+            }
+        }
+        return edges;
+    }
+    
+    /* the smallest integer rectangle containing every point */
+    public Rect boundingRect() {
+        if (coordinates.length == 0) {
+            return new Rect();
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int x = 0; x < coordinates.length; x += 2) {
+            minX = Math.min(minX, coordinates[x]);
+            maxX = Math.max(maxX, coordinates[x]);
+            minY = Math.min(minY, coordinates[x + 1]);
+            maxY = Math.max(maxY, coordinates[x + 1]);
+        }
+        final int left = (int) Math.floor(minX);
+        final int top = (int) Math.floor(minY);
+        return new Rect(left, top, (int) Math.floor(maxX) - left + 1, (int) Math.floor(maxY) - top + 1);
+    }
+    
+    /* spatial, central and normalized moments of the enclosed region, as Imgproc.moments */
+    public synchronized Moments moments() {
+        if (moments == null) {
+            moments = computeMoments(coordinates);
+        }
+        return moments;
+    }
+    
+    public synchronized Point centroid() {
+        if (centroid == null) {
+            final Moments m = moments();
+            centroid = new Point(m.get_m10() / m.get_m00(), m.get_m01() / m.get_m00());
+        }
+        return centroid;
+    }
+    
+    public synchronized double perimeter() {
+        if (Double.isNaN(perimeter)) {
+            perimeter = computePerimeter(coordinates);
+        }
+        return perimeter;
+    }
+    
+    /* the unsigned enclosed area, as Imgproc.contourArea */
+    public synchronized double area() {
+        if (Double.isNaN(area)) {
+            area = computeArea(coordinates);
+        }
+        return area;
+    }
+    
+    public synchronized Contour convexHull() {
+        if (convexHull == null) {
+            convexHull = new Contour(computeConvexHull(coordinates));
         }
         return convexHull;
     }
     
+    public double convexHullPerimeter() {
+        return convexHull().perimeter();
+    }
+    
+    public double convexHullArea() {
+        return convexHull().area();
+    }
+    
+    /* the contour with every coordinate multiplied by a positive factor; the properties
+     * already computed are carried over scaled rather than recomputed */
+    public synchronized Contour scale(final double scaleFactor) {
+        if (!(scaleFactor > 0)) {
+            throw new IllegalArgumentException("the scale factor must be positive: " + scaleFactor);
+        }
+        final float[] scaled = new float[coordinates.length];
+        for (int x = 0; x < scaled.length; x++) {
+            scaled[x] = (float) (coordinates[x] * scaleFactor);
+        }
+        final Contour contour = new Contour(scaled);
+        contour.perimeter = perimeter * scaleFactor;
+        contour.area = area * scaleFactor * scaleFactor;
+        if (centroid != null) {
+            contour.centroid = new Point(centroid.x * scaleFactor, centroid.y * scaleFactor);
+        }
+        if (moments != null) {
+            contour.moments = scale(moments, scaleFactor);
+        }
+        if (convexHull != null) {
+            contour.convexHull = convexHull.scale(scaleFactor);
+        }
+        return contour;
+    }
+    
+    /* frees the cached MatOfPoint, if any */
+    public synchronized void release() {
+        if (edges != null) {
+            edges.release();
+            edges = null;
+        }
+        if (convexHull != null) {
+            convexHull.release();
+        }
+    }
+    
+    /* m_pq of a region scaled by s is s^(p + q + 2) m_pq; the constructor derives the rest */
+    private static Moments scale(final Moments m, final double s) {
+        final double s2 = s * s, s3 = s2 * s, s4 = s3 * s, s5 = s4 * s;
+        return new Moments(m.m00 * s2, m.m10 * s3, m.m01 * s3,
+                m.m20 * s4, m.m11 * s4, m.m02 * s4,
+                m.m30 * s5, m.m21 * s5, m.m12 * s5, m.m03 * s5);
+    }
+    
+    /* Green's theorem over the polygon, following OpenCV's contour moments */
+    private static Moments computeMoments(final float[] c) {
+        final int n = c.length;
+        if (n == 0) {
+            return new Moments();
+        }
+        double a00 = 0, a10 = 0, a01 = 0, a20 = 0, a11 = 0, a02 = 0, a30 = 0, a21 = 0, a12 = 0, a03 = 0;
+        double xi1 = c[n - 2], yi1 = c[n - 1];
+        double xi12 = xi1 * xi1, yi12 = yi1 * yi1;
+        for (int x = 0; x < n; x += 2) {
+            final double xi = c[x], yi = c[x + 1];
+            final double xi2 = xi * xi, yi2 = yi * yi;
+            final double dxy = xi1 * yi - xi * yi1;
+            final double xii1 = xi1 + xi, yii1 = yi1 + yi;
+
+            a00 += dxy;
+            a10 += dxy * xii1;
+            a01 += dxy * yii1;
+            a20 += dxy * (xi1 * xii1 + xi2);
+            a11 += dxy * (xi1 * (yii1 + yi1) + xi * (yii1 + yi));
+            a02 += dxy * (yi1 * yii1 + yi2);
+            a30 += dxy * xii1 * (xi12 + xi2);
+            a03 += dxy * yii1 * (yi12 + yi2);
+            a21 += dxy * (xi12 * (3 * yi1 + yi) + 2 * xi * xi1 * yii1 + xi2 * (yi1 + 3 * yi));
+            a12 += dxy * (yi12 * (3 * xi1 + xi) + 2 * yi * yi1 * xii1 + yi2 * (xi1 + 3 * xi));
+
+            xi1 = xi;
+            yi1 = yi;
+            xi12 = xi2;
+            yi12 = yi2;
+        }
+        if (Math.abs(a00) <= Math.ulp(1f)) {
+            return new Moments();
+        }
+        final double sign = (a00 > 0) ? 1 : -1;
+        return new Moments(sign * a00 / 2, sign * a10 / 6, sign * a01 / 6,
+                sign * a20 / 12, sign * a11 / 24, sign * a02 / 12,
+                sign * a30 / 20, sign * a21 / 60, sign * a12 / 60, sign * a03 / 20);
+    }
+    
+    private static double computeArea(final float[] c) {
+        final int n = c.length;
+        if (n < 6) {
+            return 0;
+        }
+        double area = 0;
+        double prevX = c[n - 2], prevY = c[n - 1];
+        for (int x = 0; x < n; x += 2) {
+            area += prevX * c[x + 1] - c[x] * prevY;
+            prevX = c[x];
+            prevY = c[x + 1];
+        }
+        return Math.abs(area) / 2;
+    }
+    
+    private static double computePerimeter(final float[] c) {
+        final int n = c.length;
+        double perimeter = 0;
+        for (int x = 0, prev = n - 2; x < n; prev = x, x += 2) {
+            perimeter += Math.hypot(c[x] - c[prev], c[x + 1] - c[prev + 1]);
+        }
+        return perimeter;
+    }
+    
+    /* Andrew's monotone chain over the distinct points sorted as packed primitive keys;
+     * collinear points are dropped, and fewer than 3 distinct points are their own hull */
+    private static float[] computeConvexHull(final float[] c) {
+        final long[] sorted = new long[c.length / 2];
+        for (int x = 0; x < sorted.length; x++) {
+            sorted[x] = ((long) sortable(c[2 * x]) << 32) | ((sortable(c[2 * x + 1]) ^ Integer.MIN_VALUE) & 0xffffffffL);
+        }
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int x = 0; x < sorted.length; x++) {
+            if (n == 0 || sorted[x] != sorted[n - 1]) {
+                sorted[n++] = sorted[x];
+            }
+        }
+        final float[] points = new float[2 * n];
+        for (int x = 0; x < n; x++) {
+            points[2 * x] = unsortable((int) (sorted[x] >> 32));
+            points[2 * x + 1] = unsortable((int) sorted[x] ^ Integer.MIN_VALUE);
+        }
+        if (n < 3) {
+            return points;
+        }
+        final int[] hull = new int[2 * n];
+        int size = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            final int floor = (pass == 0) ? 1 : size + 1;
+            for (int x = 0; x < n; x++) {
+                final int point = (pass == 0) ? x : n - 1 - x;
+                while (size > floor && cross(points, hull[size - 2], hull[size - 1], point) <= 0) {
+                    size--;
+                }
+                hull[size++] = point;
+            }
+            size--;
+        }
+        final float[] coordinates = new float[2 * Math.max(size, 1)];
+        for (int x = 0; x < coordinates.length / 2; x++) {
+            coordinates[2 * x] = points[2 * hull[x]];
+            coordinates[2 * x + 1] = points[2 * hull[x] + 1];
+        }
+        return coordinates;
+    }
+    
+    /* float bits reordered so that signed int comparison matches float comparison */
+    private static int sortable(final float value) {
+        final int bits = Float.floatToIntBits(value + 0f);
+        return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+    }
+    
+    private static float unsortable(final int key) {
+        return Float.intBitsToFloat(key ^ ((key >> 31) & Integer.MAX_VALUE));
+    }
+    
+    private static double cross(final float[] c, final int o, final int a, final int b) {
+        return ((double) c[2 * a] - c[2 * o]) * ((double) c[2 * b + 1] - c[2 * o + 1])
+                - ((double) c[2 * a + 1] - c[2 * o + 1]) * ((double) c[2 * b] - c[2 * o]);
+    }
+    
     public void draw(final Mat mat) {
-        Imgproc.drawContours(mat, Arrays.asList(this.edges), 0, DEFAULT_COLOR, 2);
+        Imgproc.drawContours(mat, Arrays.asList(edges()), 0, DEFAULT_COLOR, 2);
     }
     
     public void drawConvexHull(final Mat mat){
-        Imgproc.drawContours(mat, this.convexHull, 0, CONVEX_HULL_COLOR, 1);
+        Imgproc.drawContours(mat, Arrays.asList(convexHull().edges()), 0, CONVEX_HULL_COLOR, 1);
     }
     
     public void drawCentroid(final Mat mat){
-        Imgproc.circle(mat, this.centroid, 5, CENTROID_COLOR, -1);
+        Imgproc.circle(mat, centroid(), 5, CENTROID_COLOR, -1);
     }
 }
\ No newline at end of file
@@ -16,18 +16,33 @@
  */
 
 import java.io.File;
-import org.opencv.core.Core;
+import java.util.List;
 import org.opencv.core.Mat;
 
 public class DemoSCIDOG {
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         nu.pattern.OpenCV.loadShared();
-        final Mat melanoma = Imager.read(new File(DemoSCIDOG.class.getResource("melanoma.jpg").getPath()));
-        final Mat naevus   = Imager.read(new File(DemoSCIDOG.class.getResource("naevus.jpg"  ).getPath()));
+        final File melanomaFile = new File(DemoSCIDOG.class.getResource("melanoma.jpg").getPath());
+        final File naevusFile   = new File(DemoSCIDOG.class.getResource("naevus.jpg"  ).getPath());
         
-        final Contour melanomaContour = Segmenter.SCIDOG(melanoma);
-        final Contour naevusContour = Segmenter.SCIDOG(naevus);
+        final BatchSegmenter.Report report;
+        try (BatchSegmenter batch = new BatchSegmenter(2)) {
+            report = batch.segment(List.of(melanomaFile, naevusFile));
+        }
+        System.out.println(BatchSegmenter.summarize(report));
+        for (final BatchSegmenter.Result result : report.results) {
+            if (!result.succeeded()) {
+                result.failure.printStackTrace();
+                return;
+            }
+        }
+        
+        final Mat melanoma = Imager.read(melanomaFile);
+        final Mat naevus   = Imager.read(naevusFile);
+        
+        final Contour melanomaContour = report.results.get(0).contour;
+        final Contour naevusContour = report.results.get(1).contour;
         
         /* draw green contour, blue convex hull, red centroid */
         
@@ -17,15 +17,24 @@
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
@@ -33,27 +42,314 @@ import org.opencv.imgproc.Imgproc;
 
 public class Imager {
 
+    /* the reach of the largest Sobel kernel SCIDOG applies, 31x31 */
+    public static final int SOBEL_HALO = 15;
+
     public static Mat read(File file) {
         return Imgcodecs.imread(file.getAbsolutePath());
     }
 
+    /* Reads an image for segmentation with options. The file is memory-mapped and decoded
+     * with imdecode straight from the mapping; with options.reducedDecode the largest
+     * IMREAD_REDUCED_COLOR_2/4/8 level that still covers the target size is chosen from
+     * the size in the image header, so JPEGs are decoded at reduced resolution by libjpeg
+     * instead of being decoded in full and scaled down afterwards. */
+    public static Decoded read(final File file, final SegmenterOptions options) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length == 0 || length > Integer.MAX_VALUE) {
+                return new Decoded(new Mat(), 1);
+            }
+            final int reduction = options.reducedDecode ? reduction(probeSize(file), options) : 1;
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            final Mat encoded = wrap(mapped, 1, (int) length, CvType.CV_8U);
+            final Mat image = Imgcodecs.imdecode(encoded, READ_FLAGS[Integer.numberOfTrailingZeros(reduction)]);
+            encoded.release();
+            return new Decoded(image, reduction);
+        }
+    }
+
+    /* decodes an encoded image held in memory, see read(File, SegmenterOptions) */
+    public static Decoded decode(final byte[] encoded, final SegmenterOptions options) throws IOException {
+        final int reduction = options.reducedDecode ? reduction(probeSize(encoded), options) : 1;
+        final MatOfByte bytes = new MatOfByte(encoded);
+        final Mat image = Imgcodecs.imdecode(bytes, READ_FLAGS[Integer.numberOfTrailingZeros(reduction)]);
+        bytes.release();
+        return new Decoded(image, reduction);
+    }
+
+    /* the pixel size recorded in the header of an image file, or null when ImageIO has no reader for it */
+    public static Size probeSize(final File file) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            return probeSize(stream);
+        }
+    }
+
+    /* the pixel size recorded in the header of an encoded image, see probeSize(File) */
+    public static Size probeSize(final byte[] encoded) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            return probeSize(stream);
+        }
+    }
+
+    private static Size probeSize(final ImageInputStream stream) throws IOException {
+        if (stream == null) {
+            return null;
+        }
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        final ImageReader reader = readers.next();
+        try {
+            reader.setInput(stream, true, true);
+            return new Size(reader.getWidth(0), reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /* the largest of 1, 2, 4 and 8 that still leaves the image at least as large as the
+     * target size in either orientation, so Segmenter never has to upscale */
+    public static int reduction(final Size size, final SegmenterOptions options) {
+        if (size == null) {
+            return 1;
+        }
+        final int width = (int) size.width;
+        final int height = (int) size.height;
+        final double factor = Math.max(scaleFactor(width, height, options.maxWidth, options.maxHeight),
+                scaleFactor(height, width, options.maxWidth, options.maxHeight));
+        int reduction = 1;
+        while (reduction < 8 && 2 * reduction * factor <= 1) {
+            reduction *= 2;
+        }
+        return reduction;
+    }
+
+    private static final int[] READ_FLAGS = {Imgcodecs.IMREAD_COLOR, Imgcodecs.IMREAD_REDUCED_COLOR_2,
+            Imgcodecs.IMREAD_REDUCED_COLOR_4, Imgcodecs.IMREAD_REDUCED_COLOR_8};
+
+    /* a decoded image and the factor its resolution was reduced by while decoding */
+    public static final class Decoded {
+
+        public final Mat image;
+        public final int reduction;
+
+        public Decoded(final Mat image, final int reduction) {
+            this.image     = image;
+            this.reduction = reduction;
+        }
+
+        /* contours found in image, in the coordinates of the full resolution image */
+        public List<Contour> toOriginal(final List<Contour> contours) {
+            if (reduction == 1) {
+                return contours;
+            }
+            final List<Contour> original = new ArrayList<>(contours.size());
+            contours.forEach(contour -> original.add(contour.scale(reduction)));
+            return original;
+        }
+
+        public void release() {
+            image.release();
+        }
+    }
+
     public static void write(Mat mat, String filename) throws IOException {
         Imgcodecs.imwrite(filename, mat);
     }
     
     public static BufferedImage matToBufferedImage(final Mat mat) {
+        return matToBufferedImage(mat, null);
+    }
+    
+    /* fills target when it matches the size and type of the Mat, otherwise allocates a new image */
+    public static BufferedImage matToBufferedImage(final Mat mat, final BufferedImage target) {
         int type = BufferedImage.TYPE_CUSTOM;
         if (mat.channels() == 1) {
             type = BufferedImage.TYPE_BYTE_GRAY;
         } else if (mat.channels() == 3) {
             type = BufferedImage.TYPE_3BYTE_BGR;
         }
-        BufferedImage bufferedImage = new BufferedImage(mat.width(), mat.height(), type);
+        final BufferedImage bufferedImage = (target != null && target.getType() == type
+                && target.getWidth() == mat.width() && target.getHeight() == mat.height())
+                ? target : new BufferedImage(mat.width(), mat.height(), type);
         byte[] data = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
         mat.get(0, 0, data);
         return bufferedImage;
     }
     
+    /* wraps a direct buffer without copying; the buffer must outlive the Mat */
+    public static Mat wrap(final ByteBuffer direct, final int rows, final int cols, final int type) {
+        if (!direct.isDirect()) {
+            throw new IllegalArgumentException("only direct buffers can be shared with OpenCV");
+        }
+        return new Mat(rows, cols, type, direct);
+    }
+    
+    /* all pixels of an 8-bit Mat in a single get, interleaved by channel */
+    public static byte[] interleavedBytes(final Mat mat, final byte[] target) {
+        requireDepth(mat, CvType.CV_8U, CvType.CV_8S);
+        final int length = (int) mat.total() * mat.channels();
+        final byte[] data = (target != null && target.length == length) ? target : new byte[length];
+        mat.get(0, 0, data);
+        return data;
+    }
+    
+    public static byte[][] planarBytes(final Mat mat) {
+        return planarBytes(mat, null);
+    }
+    
+    /* one array per channel of an 8-bit Mat, filling target when its shape matches; a single
+     * channel is read straight into its plane, more are extracted through one pooled Mat */
+    public static byte[][] planarBytes(final Mat mat, final byte[][] target) {
+        requireDepth(mat, CvType.CV_8U, CvType.CV_8S);
+        final int channels = mat.channels();
+        final int pixels = (int) mat.total();
+        final byte[][] planes = fits(target, channels, pixels) ? target : new byte[channels][pixels];
+        if (channels == 1) {
+            mat.get(0, 0, planes[0]);
+            return planes;
+        }
+        final Mat plane = MatPool.acquire(mat.rows(), mat.cols(), mat.depth());
+        try {
+            for (int c = 0; c < channels; c++) {
+                Core.extractChannel(mat, plane, c);
+                plane.get(0, 0, planes[c]);
+            }
+        } finally {
+            MatPool.release(plane);
+        }
+        return planes;
+    }
+    
+    public static short[][] planarShorts(final Mat mat) {
+        return planarShorts(mat, null);
+    }
+    
+    /* one array per channel of a 16-bit Mat, filling target when its shape matches */
+    public static short[][] planarShorts(final Mat mat, final short[][] target) {
+        requireDepth(mat, CvType.CV_16U, CvType.CV_16S);
+        final int channels = mat.channels();
+        final int pixels = (int) mat.total();
+        final short[][] planes = fits(target, channels, pixels) ? target : new short[channels][pixels];
+        if (channels == 1) {
+            mat.get(0, 0, planes[0]);
+            return planes;
+        }
+        final Mat plane = MatPool.acquire(mat.rows(), mat.cols(), mat.depth());
+        try {
+            for (int c = 0; c < channels; c++) {
+                Core.extractChannel(mat, plane, c);
+                plane.get(0, 0, planes[c]);
+            }
+        } finally {
+            MatPool.release(plane);
+        }
+        return planes;
+    }
+    
+    public static float[][] planarFloats(final Mat mat) {
+        return planarFloats(mat, null);
+    }
+    
+    /* one array per channel of any Mat, filling target when its shape matches; other depths
+     * are converted to 32-bit float in one native call into a pooled Mat first */
+    public static float[][] planarFloats(final Mat mat, final float[][] target) {
+        final int channels = mat.channels();
+        final int pixels = (int) mat.total();
+        final float[][] planes = fits(target, channels, pixels) ? target : new float[channels][pixels];
+        Mat converted = mat;
+        if (mat.depth() != CvType.CV_32F) {
+            converted = MatPool.acquire(mat.rows(), mat.cols(), CvType.CV_32FC(channels));
+            mat.convertTo(converted, CvType.CV_32F);
+        }
+        final Mat plane = (channels == 1) ? converted : MatPool.acquire(mat.rows(), mat.cols(), CvType.CV_32F);
+        try {
+            for (int c = 0; c < channels; c++) {
+                if (plane != converted) {
+                    Core.extractChannel(converted, plane, c);
+                }
+                plane.get(0, 0, planes[c]);
+            }
+        } finally {
+            if (plane != converted) {
+                MatPool.release(plane);
+            }
+            if (converted != mat) {
+                MatPool.release(converted);
+            }
+        }
+        return planes;
+    }
+    
+    /* writes one array per channel back into an 8-bit Mat, reusing target's native memory
+     * when it already has the shape; more than one channel is inserted through a pooled Mat */
+    public static Mat fromPlanarBytes(final byte[][] planes, final int rows, final int cols, final Mat target) {
+        final int channels = planes.length;
+        final Mat mat = (target != null) ? target : new Mat();
+        mat.create(rows, cols, CvType.CV_8UC(channels));
+        if (channels == 1) {
+            mat.put(0, 0, planes[0]);
+            return mat;
+        }
+        final Mat plane = MatPool.acquire(rows, cols, CvType.CV_8U);
+        try {
+            for (int c = 0; c < channels; c++) {
+                plane.put(0, 0, planes[c]);
+                Core.insertChannel(plane, mat, c);
+            }
+        } finally {
+            MatPool.release(plane);
+        }
+        return mat;
+    }
+    
+    private static boolean fits(final byte[][] target, final int channels, final int pixels) {
+        if (target == null || target.length != channels) {
+            return false;
+        }
+        for (final byte[] plane : target) {
+            if (plane == null || plane.length != pixels) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean fits(final short[][] target, final int channels, final int pixels) {
+        if (target == null || target.length != channels) {
+            return false;
+        }
+        for (final short[] plane : target) {
+            if (plane == null || plane.length != pixels) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean fits(final float[][] target, final int channels, final int pixels) {
+        if (target == null || target.length != channels) {
+            return false;
+        }
+        for (final float[] plane : target) {
+            if (plane == null || plane.length != pixels) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void requireDepth(final Mat mat, final int... depths) {
+        for (final int depth : depths) {
+            if (mat.depth() == depth) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("unsupported Mat type " + CvType.typeToString(mat.type()));
+    }
+    
     public static Mat mean(Mat... mats) {
         final Mat mean = mats[0].clone();
         final double weight = 1d / mats.length;
@@ -64,10 +360,29 @@ public class Imager {
         return mean;
     }
 
+    /* exact mean of a sequence of Mats, holding only a running sum */
+    public static Mat mean(final Iterable<Mat> mats) {
+        final RunningMean runningMean = new RunningMean();
+        for (final Mat mat : mats) {
+            runningMean.add(mat);
+        }
+        final Mat mean = runningMean.mean();
+        runningMean.release();
+        return mean;
+    }
+
     public static Mat scale(Mat mat, double factor) {
-        Mat scaled = new Mat();
-        Imgproc.resize(mat, scaled, new Size(mat.cols() * factor, mat.rows() * factor));
-        return scaled;
+        return scale(mat, factor, new Mat());
+    }
+    
+    public static Mat scale(final Mat mat, final double factor, final Mat dst) {
+        Imgproc.resize(mat, dst, scaledSize(mat, factor));
+        return dst;
+    }
+    
+    /* the size resize produces for a scale factor, so callers can allocate dst up front */
+    public static Size scaledSize(final Mat mat, final double factor) {
+        return new Size((int) (mat.cols() * factor), (int) (mat.rows() * factor));
     }
     
     public static Mat scale(Mat mat, int maxWidth, int maxHeight) {
@@ -82,42 +397,51 @@ public class Imager {
     }
     
     public static double[][] channelValues(final Mat mat){
-        final ArrayList<Double>[] pixels = new ArrayList[mat.channels()];
-        for (int c = 0; c < pixels.length; c++){
-            pixels[c] = new ArrayList<>();
-        }
-        for (int y = 0; y < mat.rows(); y++){
-            for (int x = 0; x < mat.cols(); x++){
-                final double[] values = mat.get(y,x);
-                for (int c = 0; c < values.length; c++){
-                    pixels[c].add(values[c]);
-                }
-            }
+        final int channels = mat.channels();
+        final int pixels = (int) mat.total();
+        final double[] interleaved = new double[pixels * channels];
+        if (mat.depth() == CvType.CV_64F){
+            mat.get(0, 0, interleaved);
+        } else {
+            final Mat converted = new Mat();
+            mat.convertTo(converted, CvType.CV_64F);
+            converted.get(0, 0, interleaved);
+            converted.release();
         }
-        final double[][] channelValues = new double[pixels.length][];
-        for (int c = 0; c < channelValues.length; c++){
-            channelValues[c] = pixels[c].stream().mapToDouble(Double::doubleValue).toArray();
+        final double[][] channelValues = new double[channels][pixels];
+        for (int c = 0; c < channels; c++){
+            final double[] values = channelValues[c];
+            for (int x = 0, i = c; x < pixels; x++, i += channels){
+                values[x] = interleaved[i];
+            }
         }
         return channelValues;
     }
     
     public static Contour findLargestContour(final Mat threshold) {
-        final List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(threshold, contours, new Mat(), Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
-        Collections.sort(contours, (c1, c2) -> Double.compare(Imgproc.contourArea(c2), Imgproc.contourArea(c1)));
-        return new Contour(contours.get(0));
+        return findLargestContour(threshold, new Point());
+    }
+    
+    /* the largest contour with every point shifted by offset, e.g. the origin of an ROI */
+    public static Contour findLargestContour(final Mat threshold, final Point offset) {
+        final List<Contour> contours = RegionExtractor.LARGEST.contours(threshold, offset);
+        return contours.isEmpty() ? null : contours.get(0);
     }
 
     public static Mat sobel(Mat mat, int order, int kSize) {
-        Mat sobelX = new Mat();
-        Mat sobelY = new Mat();
-        Imgproc.Sobel(mat, sobelX, CvType.CV_16S, order, 0, kSize, 1, 0);
-        Imgproc.Sobel(mat, sobelY, CvType.CV_16S, 0, order, kSize, 1, 0);
-        Core.convertScaleAbs(sobelX, sobelX);
-        Core.convertScaleAbs(sobelY, sobelY);
-        Mat sobel = new Mat();
-        Core.addWeighted(sobelX, 0.5, sobelY, 0.5, 0, sobel);
-        return sobel;
+        try (MatPool.Scope scope = MatPool.open()) {
+            final Mat sobelX = scope.acquire(mat.rows(), mat.cols(), CvType.CV_16SC(mat.channels()));
+            final Mat sobelY = scope.acquire(sobelX);
+            final Mat absX = scope.acquire(mat.rows(), mat.cols(), CvType.CV_8UC(mat.channels()));
+            final Mat absY = scope.acquire(absX);
+            Imgproc.Sobel(mat, sobelX, CvType.CV_16S, order, 0, kSize, 1, 0);
+            Imgproc.Sobel(mat, sobelY, CvType.CV_16S, 0, order, kSize, 1, 0);
+            Core.convertScaleAbs(sobelX, absX);
+            Core.convertScaleAbs(sobelY, absY);
+            Mat sobel = new Mat();
+            Core.addWeighted(absX, 0.5, absY, 0.5, 0, sobel);
+            return sobel;
+        }
     }
 
     public static Mat scharr(Mat mat) {
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Default SegmentationListener: emits JDK Flight Recorder events, which cost next to
+ * nothing unless a recording with the scidog events enabled is running, e.g.
+ *
+ *     java -XX:StartFlightRecording=filename=scidog.jfr ...
+ *     jfr print --events scidog.* scidog.jfr */
+public class JfrSegmentationListener implements SegmentationListener {
+
+    public static final JfrSegmentationListener INSTANCE = new JfrSegmentationListener();
+
+    @Name("scidog.Segmentation")
+    @Label("Segmentation")
+    @Category("SCIDOG")
+    static class SegmentationEvent extends Event {
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+        @Label("Iterations") int iterations;
+        @Label("Succeeded") boolean succeeded;
+        @Label("Termination") String termination;
+        @Label("Latency") @Timespan(Timespan.NANOSECONDS) long latency;
+    }
+
+    @Name("scidog.Stage")
+    @Label("Segmentation Stage")
+    @Category("SCIDOG")
+    static class StageEvent extends Event {
+        @Label("Stage") String stage;
+        @Label("Latency") @Timespan(Timespan.NANOSECONDS) long latency;
+    }
+
+    @Name("scidog.Iteration")
+    @Label("Convergence Iteration")
+    @Category("SCIDOG")
+    @Description("One omnigradient iteration; the loop stops once the ratio reaches the convergence threshold")
+    static class IterationEvent extends Event {
+        @Label("Iteration") int iteration;
+        @Label("Average") double average;
+        @Label("Ratio") double ratio;
+        @Label("Latency") @Timespan(Timespan.NANOSECONDS) long latency;
+    }
+
+    @Name("scidog.Intermediate")
+    @Label("Intermediate Mat")
+    @Category("SCIDOG")
+    static class IntermediateEvent extends Event {
+        @Label("Name") String name;
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+        @Label("Type") String type;
+        @Label("Size") @DataAmount long bytes;
+    }
+
+    private final ThreadLocal<int[]>                   shapes       = ThreadLocal.withInitial(() -> new int[2]);
+    private final ThreadLocal<Segmenter.Termination[]> terminations = ThreadLocal.withInitial(
+            () -> new Segmenter.Termination[1]);
+
+    @Override
+    public void started(final int rows, final int cols) {
+        final int[] shape = shapes.get();
+        shape[0] = rows;
+        shape[1] = cols;
+        terminations.get()[0] = null;
+    }
+
+    @Override
+    public void stage(final Stage stage, final long nanos) {
+        final StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void iteration(final int iteration, final double average, final double ratio, final long nanos) {
+        final IterationEvent event = new IterationEvent();
+        if (event.shouldCommit()) {
+            event.iteration = iteration;
+            event.average = average;
+            event.ratio = ratio;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void intermediate(final String name, final Mat mat) {
+        final IntermediateEvent event = new IntermediateEvent();
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.rows = mat.rows();
+            event.cols = mat.cols();
+            event.type = CvType.typeToString(mat.type());
+            event.bytes = mat.total() * mat.elemSize();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void terminated(final Segmenter.Termination termination) {
+        terminations.get()[0] = termination;
+    }
+
+    @Override
+    public void completed(final int iterations, final long nanos, final boolean succeeded) {
+        final SegmentationEvent event = new SegmentationEvent();
+        if (event.shouldCommit()) {
+            final int[] shape = shapes.get();
+            event.rows = shape[0];
+            event.cols = shape[1];
+            event.iterations = iterations;
+            event.succeeded = succeeded;
+            final Segmenter.Termination termination = terminations.get()[0];
+            event.termination = (termination == null) ? null : termination.name();
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+}
\ No newline at end of file
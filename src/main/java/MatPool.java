@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Per-thread pool of scratch Mats keyed by rows, columns and type. Native Mats are
+ * invisible to the garbage collector, so hot paths lease their temporaries here and
+ * give them back instead of allocating and freeing native memory on every call.
+ *
+ *     try (MatPool.Scope scope = MatPool.open()) {
+ *         final Mat scratch = scope.acquire(rows, cols, CvType.CV_16S);
+ *         ...
+ *     }
+ *
+ * Closing a scope gives back every Mat leased inside it that was not detached. Mats
+ * leased with the static acquire must be given back with release; with
+ * -Dscidog.matpool.debug=true every lease records its allocation site so that
+ * reportOutstanding can show where the un-released ones came from. Pooled Mats must
+ * be released on the thread that acquired them.
+ *
+ * A pool keeps at most MAX_IDLE_BYTES idle; when a Mat given back would exceed that,
+ * the idle Mats of the least recently used shapes are freed first, so a thread that
+ * moves on to another image size does not keep the old size's Mats. A daemon thread
+ * frees Mats that have been idle for IDLE_TIMEOUT_MILLIS in every pool, including the
+ * pools of threads that stopped segmenting, and threads made by daemons clear their
+ * pool when they finish. */
+public final class MatPool {
+
+    public static final boolean DEBUG = Boolean.getBoolean("scidog.matpool.debug");
+
+    /* native bytes each thread may keep idle before the least recently used Mats are freed */
+    public static final long MAX_IDLE_BYTES = Long.getLong("scidog.matpool.maxIdleBytes", 64L << 20);
+
+    /* idle Mats kept per key */
+    public static final int MAX_IDLE_PER_KEY = 8;
+
+    /* how long a Mat may stay idle before the trimmer frees it, or 0 to never trim */
+    public static final long IDLE_TIMEOUT_MILLIS = Long.getLong("scidog.matpool.idleTimeoutMillis", 30_000L);
+
+    /* the empty Mat passed as "no mask" to OpenCV calls; nothing writes to it, so one is shared */
+    public static final Mat NO_MASK = new Mat();
+
+    private static final ThreadLocal<MatPool> POOLS = ThreadLocal.withInitial(MatPool::register);
+
+    /* every pool whose thread is still reachable, for the trimmer */
+    private static final Set<MatPool> ALL = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /* in least recently used order; the newest idle Mat of a key is first in its deque */
+    private final LinkedHashMap<Key, ArrayDeque<Idle>> idle   = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Mat, Lease>                      leases = new IdentityHashMap<>();
+    private long idleBytes;
+
+    private MatPool() {
+    }
+
+    private static MatPool register() {
+        final MatPool pool = new MatPool();
+        ALL.add(pool);
+        Trimmer.start();
+        return pool;
+    }
+
+    public static Scope open() {
+        return new Scope(POOLS.get());
+    }
+
+    /* a pooled Mat of the given shape; its contents are undefined */
+    public static Mat acquire(final int rows, final int cols, final int type) {
+        return POOLS.get().lease(rows, cols, type);
+    }
+
+    /* returns a pooled Mat to this thread's pool; Mats that were never pooled are released */
+    public static void release(final Mat mat) {
+        POOLS.get().giveBack(mat);
+    }
+
+    /* Mats leased on this thread and not yet released */
+    public static List<Lease> outstanding() {
+        final MatPool pool = POOLS.get();
+        synchronized (pool) {
+            return new ArrayList<>(pool.leases.values());
+        }
+    }
+
+    public static void reportOutstanding(final PrintStream out) {
+        report(out, "outstanding", outstanding());
+    }
+
+    /* frees every idle Mat of this thread's pool */
+    public static void clear() {
+        POOLS.get().trim(Long.MAX_VALUE);
+    }
+
+    /* daemon threads that free their pool's idle Mats when they finish */
+    static ThreadFactory daemons(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    clear();
+                }
+            }, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private synchronized Mat lease(final int rows, final int cols, final int type) {
+        final Key key = new Key(rows, cols, type);
+        final ArrayDeque<Idle> mats = idle.get(key);
+        final Idle pooled = (mats == null) ? null : mats.pollFirst();
+        Mat mat = null;
+        if (pooled != null) {
+            idleBytes -= key.bytes();
+            mat = pooled.mat;
+        }
+        /* an idle Mat that was released behind the pool's back is replaced */
+        if (mat == null || mat.rows() != rows || mat.cols() != cols || mat.type() != type) {
+            mat = new Mat(rows, cols, type);
+        }
+        leases.put(mat, new Lease(key, DEBUG ? new Throwable("Mat leased here") : null));
+        return mat;
+    }
+
+    private synchronized void giveBack(final Mat mat) {
+        final Lease lease = leases.remove(mat);
+        /* a Mat whose shape changed since it was leased no longer belongs to its key */
+        if (lease == null || mat.rows() != lease.key.rows || mat.cols() != lease.key.cols || mat.type() != lease.key.type) {
+            mat.release();
+            return;
+        }
+        final long bytes = lease.key.bytes();
+        final ArrayDeque<Idle> mats = idle.get(lease.key);
+        if ((mats != null && mats.size() >= MAX_IDLE_PER_KEY) || bytes > MAX_IDLE_BYTES) {
+            mat.release();
+            return;
+        }
+        if (idleBytes + bytes > MAX_IDLE_BYTES) {
+            evict(MAX_IDLE_BYTES - bytes);
+        }
+        /* evict may have emptied and dropped this key's deque as well */
+        idle.computeIfAbsent(lease.key, key -> new ArrayDeque<>()).addFirst(new Idle(mat, System.nanoTime()));
+        idleBytes += bytes;
+    }
+
+    private synchronized void forget(final Mat mat) {
+        leases.remove(mat);
+    }
+
+    /* frees idle Mats of the least recently used keys, oldest first, until at most maxBytes are idle */
+    private void evict(final long maxBytes) {
+        final Iterator<Map.Entry<Key, ArrayDeque<Idle>>> entries = idle.entrySet().iterator();
+        while (idleBytes > maxBytes && entries.hasNext()) {
+            final Map.Entry<Key, ArrayDeque<Idle>> entry = entries.next();
+            final ArrayDeque<Idle> mats = entry.getValue();
+            while (idleBytes > maxBytes && !mats.isEmpty()) {
+                mats.pollLast().mat.release();
+                idleBytes -= entry.getKey().bytes();
+            }
+            if (mats.isEmpty()) {
+                entries.remove();
+            }
+        }
+    }
+
+    /* frees the Mats that have been idle for at least idleNanos */
+    private synchronized void trim(final long idleNanos) {
+        final long now = System.nanoTime();
+        final Iterator<Map.Entry<Key, ArrayDeque<Idle>>> entries = idle.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Key, ArrayDeque<Idle>> entry = entries.next();
+            final ArrayDeque<Idle> mats = entry.getValue();
+            while (!mats.isEmpty() && (idleNanos == Long.MAX_VALUE || now - mats.peekLast().since >= idleNanos)) {
+                mats.pollLast().mat.release();
+                idleBytes -= entry.getKey().bytes();
+            }
+            if (mats.isEmpty()) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static void report(final PrintStream out, final String what, final List<Lease> leases) {
+        if (leases.isEmpty()) {
+            return;
+        }
+        final StringBuilder report = new StringBuilder("MatPool: ").append(leases.size()).append(" Mat(s) ")
+                .append(what).append(" on ").append(Thread.currentThread().getName()).append(System.lineSeparator());
+        for (final Lease lease : leases) {
+            report.append("    ").append(lease.key).append(System.lineSeparator());
+            if (lease.site != null) {
+                for (final StackTraceElement element : lease.site.getStackTrace()) {
+                    if (!element.getClassName().startsWith(MatPool.class.getName())) {
+                        report.append("        at ").append(element).append(System.lineSeparator());
+                    }
+                }
+            }
+        }
+        out.print(report);
+    }
+
+    public static final class Scope implements AutoCloseable {
+
+        private final MatPool   pool;
+        private final List<Mat> leased = new ArrayList<>();
+
+        private Scope(final MatPool pool) {
+            this.pool = pool;
+        }
+
+        public Mat acquire(final int rows, final int cols, final int type) {
+            final Mat mat = pool.lease(rows, cols, type);
+            leased.add(mat);
+            return mat;
+        }
+
+        public Mat acquire(final Mat like) {
+            return acquire(like.rows(), like.cols(), like.type());
+        }
+
+        /* gives a Mat back before the scope closes so later leases can reuse it */
+        public void release(final Mat mat) {
+            if (leased.remove(mat)) {
+                pool.giveBack(mat);
+            }
+        }
+
+        /* lets a Mat leased in this scope outlive it; the caller then owns and releases it */
+        public Mat detach(final Mat mat) {
+            if (leased.remove(mat)) {
+                pool.forget(mat);
+            }
+            return mat;
+        }
+
+        @Override
+        public void close() {
+            leased.forEach(pool::giveBack);
+            leased.clear();
+        }
+    }
+
+    private static final class Idle {
+
+        final Mat  mat;
+        /* System.nanoTime when the Mat was given back */
+        final long since;
+
+        Idle(final Mat mat, final long since) {
+            this.mat   = mat;
+            this.since = since;
+        }
+    }
+
+    /* the daemon thread that trims every pool, started with the first pool */
+    private static final class Trimmer {
+
+        private static final ScheduledExecutorService EXECUTOR = (IDLE_TIMEOUT_MILLIS > 0)
+                ? Executors.newSingleThreadScheduledExecutor(daemons("scidog-matpool-trimmer-"))
+                : null;
+
+        static {
+            if (EXECUTOR != null) {
+                final long period = Math.max(1, IDLE_TIMEOUT_MILLIS / 2);
+                EXECUTOR.scheduleWithFixedDelay(Trimmer::trimAll, period, period, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /* the class initializer does the work, exactly once */
+        static void start() {
+        }
+
+        private static void trimAll() {
+            final List<MatPool> pools;
+            synchronized (ALL) {
+                pools = new ArrayList<>(ALL);
+            }
+            final long idleNanos = TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MILLIS);
+            pools.forEach(pool -> pool.trim(idleNanos));
+        }
+    }
+
+    public static final class Lease {
+
+        public final Key       key;
+        /* where the Mat was leased, or null unless DEBUG is set */
+        public final Throwable site;
+
+        private Lease(final Key key, final Throwable site) {
+            this.key  = key;
+            this.site = site;
+        }
+    }
+
+    public static final class Key {
+
+        public final int rows;
+        public final int cols;
+        public final int type;
+
+        private Key(final int rows, final int cols, final int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        long bytes() {
+            return (long) rows * cols * CvType.ELEM_SIZE(type);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return rows == key.rows && cols == key.cols && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rows, cols, type);
+        }
+
+        @Override
+        public String toString() {
+            return rows + "x" + cols + " " + CvType.typeToString(type);
+        }
+    }
+}
\ No newline at end of file
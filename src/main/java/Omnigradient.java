@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/* Fused omnigradient kernel bank. Every kernel contributes
+ *
+ *     0.5 * |d/dx| + 0.5 * |d/dy|
+ *
+ * with each magnitude saturated to 8 bits exactly as in Imager.sobel, but the magnitudes
+ * are summed in CV_32F and rounded to 8 bits once. The derivatives are still taken in
+ * CV_16S: OpenCV evaluates 8-bit to CV_16S Sobel kernels in integer arithmetic, while
+ * CV_32F derivatives of the 23x23 and larger kernels pick up cancellation noise in flat
+ * regions that saturates the gradient. Each magnitude is saturated in place in CV_16S,
+ * with absdiff and min, and added to the accumulator from there, so no 8-bit Mats are
+ * made. The kernels are split over at most as many tasks as the common fork-join pool
+ * has workers; each task holds one accumulator and one CV_16S scratch Mat for all of
+ * its kernels, and the accumulators are added up once at the end.
+ *
+ * Imager.mean(Imager.scharr(gray), Imager.sobel(gray, 1, 5), ..., Imager.sobel(gray, 1, 31))
+ * rounds to 8 bits after averaging each kernel's directions and after every step of the
+ * mean, so it drifts from the exact average. compute(gray) returns the exact average
+ * rounded once; the two differ by at most 8 gray levels per pixel (16 accumulated
+ * roundings of at most one half) and by less than 1 gray level on average.
+ *
+ * With PixelKernels.VECTORIZED, both derivatives of a kernel are written to direct
+ * buffers, and their saturated magnitudes are added to a CV_16S accumulator in one
+ * pass; OpenCV needs two convertScaleAbs and two accumulate passes for the same sums.
+ * The kernels are chunked over the workers in the same way, each task adds its
+ * accumulator to a pooled CV_16S total once, and the total is converted like the CV_32F
+ * sum. The sums are integers in either case, so both paths return identical
+ * omnigradients. The derivative and accumulator buffers are kept per thread for the
+ * next call up to MAX_CACHED_BYTES each; larger ones are dropped after use, so one large
+ * image does not pin them for the life of a pool worker. */
+public class Omnigradient {
+
+    /* Imgproc.CV_SCHARR followed by the Sobel kernel sizes 5, 7, ..., 31 */
+    public static final int[] KERNEL_SIZES = kernelSizes(5, 31, true);
+
+    /* kernels whose summed magnitudes, at most 510 each, still fit a short */
+    private static final int MAX_FUSED_KERNELS = Short.MAX_VALUE / 510;
+
+    private static final Scalar ZERO      = new Scalar(0);
+    private static final Scalar SATURATED = new Scalar(255);
+
+    /* the largest fused path buffer a thread keeps between calls: 4 Mpx of CV_16S */
+    private static final int MAX_CACHED_BYTES = 1 << 23;
+
+    /* per-thread direct buffers of the fused path: both derivatives and the accumulator */
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[3]);
+
+    public static int[] kernelSizes(final int minSobel, final int maxSobel, final boolean scharr) {
+        if (minSobel < 1 || minSobel % 2 == 0 || maxSobel > 31 || maxSobel % 2 == 0 || maxSobel < minSobel) {
+            throw new IllegalArgumentException("Sobel kernel sizes must be odd and within [1, 31]");
+        }
+        final int offset = scharr ? 1 : 0;
+        final int[] kernelSizes = new int[offset + (maxSobel - minSobel) / 2 + 1];
+        if (scharr) {
+            kernelSizes[0] = Imgproc.CV_SCHARR;
+        }
+        for (int x = offset; x < kernelSizes.length; x++) {
+            kernelSizes[x] = minSobel + 2 * (x - offset);
+        }
+        return kernelSizes;
+    }
+
+    public static Mat compute(final Mat gray) {
+        return compute(gray, KERNEL_SIZES);
+    }
+
+    /* the 8-bit average gradient of the kernel bank; Imgproc.CV_SCHARR denotes the Scharr operator */
+    public static Mat compute(final Mat gray, final int... kernelSizes) {
+        return compute(gray, new Mat(), kernelSizes);
+    }
+
+    /* writes the omnigradient into dst, which may be a pooled Mat of the size of gray */
+    public static Mat compute(final Mat gray, final Mat dst, final int... kernelSizes) {
+        if (fused(gray, kernelSizes)) {
+            try (MatPool.Scope scope = MatPool.open()) {
+                fusedSum(gray, kernelSizes, scope).convertTo(dst, CvType.CV_8U, 0.5 / kernelSizes.length);
+            }
+            return dst;
+        }
+        final Mat sum = sum(gray, kernelSizes);
+        sum.convertTo(dst, CvType.CV_8U, 0.5 / kernelSizes.length);
+        sum.release();
+        return dst;
+    }
+
+    /* the CV_32F sum of |d/dx| + |d/dy| over the kernel bank, before averaging */
+    public static Mat sum(final Mat gray, final int... kernelSizes) {
+        if (gray.channels() != 1) {
+            throw new IllegalArgumentException("omnigradients are computed on single channel images");
+        }
+        if (kernelSizes.length == 0) {
+            throw new IllegalArgumentException("the kernel bank is empty");
+        }
+        if (fused(gray, kernelSizes)) {
+            final Mat sum = new Mat();
+            try (MatPool.Scope scope = MatPool.open()) {
+                fusedSum(gray, kernelSizes, scope).convertTo(sum, CvType.CV_32F);
+            }
+            return sum;
+        }
+        final int chunks = Math.min(kernelSizes.length, ForkJoinPool.commonPool().getParallelism());
+        return ForkJoinPool.commonPool().invoke(new KernelBankTask(gray, kernelSizes, chunks, 0, chunks));
+    }
+
+    /* the CV_32F |d/dx| + |d/dy| of every kernel on its own, for callers that combine banks
+     * sharing kernels; adding the magnitudes of a bank and converting as compute does gives
+     * its omnigradient */
+    public static Mat[] magnitudes(final Mat gray, final int... kernelSizes) {
+        if (gray.channels() != 1) {
+            throw new IllegalArgumentException("omnigradients are computed on single channel images");
+        }
+        final Mat[] magnitudes = new Mat[kernelSizes.length];
+        if (kernelSizes.length > 0) {
+            ForkJoinPool.commonPool().invoke(new MagnitudeTask(gray, kernelSizes, magnitudes, 0, kernelSizes.length));
+        }
+        return magnitudes;
+    }
+
+    private static boolean fused(final Mat gray, final int[] kernelSizes) {
+        return PixelKernels.VECTORIZED != null && kernelSizes.length <= MAX_FUSED_KERNELS;
+    }
+
+    /* the CV_16S sum over the kernel bank in a Mat of scope */
+    private static Mat fusedSum(final Mat gray, final int[] kernelSizes, final MatPool.Scope scope) {
+        if (gray.channels() != 1) {
+            throw new IllegalArgumentException("omnigradients are computed on single channel images");
+        }
+        if (kernelSizes.length == 0) {
+            throw new IllegalArgumentException("the kernel bank is empty");
+        }
+        final Mat total = scope.acquire(gray.rows(), gray.cols(), CvType.CV_16S);
+        total.setTo(ZERO);
+        final int chunks = Math.min(kernelSizes.length, ForkJoinPool.commonPool().getParallelism());
+        ForkJoinPool.commonPool().invoke(new FusedKernelBankTask(gray, kernelSizes, total, chunks, 0, chunks));
+        return total;
+    }
+
+    /* this thread's buffer in slot, grown to at least bytes */
+    private static ByteBuffer buffer(final ByteBuffer[] buffers, final int slot, final int bytes) {
+        if (buffers[slot] == null || buffers[slot].capacity() < bytes) {
+            buffers[slot] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        return buffers[slot];
+    }
+
+    /* adds |d/dx| + |d/dy| of one kernel, each saturated to 255 as convertScaleAbs would, to a
+     * CV_32F accumulator using the caller's CV_16S scratch Mat */
+    public static void accumulate(final Mat gray, final int kernelSize, final Mat accumulator, final Mat derivative) {
+        Imgproc.Sobel(gray, derivative, CvType.CV_16S, 1, 0, kernelSize, 1, 0);
+        addMagnitude(derivative, accumulator);
+        Imgproc.Sobel(gray, derivative, CvType.CV_16S, 0, 1, kernelSize, 1, 0);
+        addMagnitude(derivative, accumulator);
+    }
+
+    private static void addMagnitude(final Mat derivative, final Mat accumulator) {
+        /* absdiff saturates |-32768| to 32767, which min takes to 255 like convertScaleAbs */
+        Core.absdiff(derivative, ZERO, derivative);
+        Core.min(derivative, SATURATED, derivative);
+        Core.add(accumulator, derivative, accumulator, MatPool.NO_MASK, CvType.CV_32F);
+    }
+
+    /* chunk c of chunks sums the kernels c, c + chunks, c + 2 * chunks, ..., which mixes
+     * small and large kernels in every chunk */
+    private static class KernelBankTask extends RecursiveTask<Mat> {
+
+        private final Mat   gray;
+        private final int[] kernelSizes;
+        private final int   chunks;
+        private final int   from;
+        private final int   to;
+
+        KernelBankTask(final Mat gray, final int[] kernelSizes, final int chunks, final int from, final int to) {
+            this.gray        = gray;
+            this.kernelSizes = kernelSizes;
+            this.chunks      = chunks;
+            this.from        = from;
+            this.to          = to;
+        }
+
+        @Override
+        protected Mat compute() {
+            if (to - from == 1) {
+                final Mat accumulator = Mat.zeros(gray.size(), CvType.CV_32F);
+                try (MatPool.Scope scope = MatPool.open()) {
+                    final Mat derivative = scope.acquire(gray.rows(), gray.cols(), CvType.CV_16S);
+                    for (int k = from; k < kernelSizes.length; k += chunks) {
+                        accumulate(gray, kernelSizes[k], accumulator, derivative);
+                    }
+                }
+                return accumulator;
+            }
+            final int middle = (from + to) >>> 1;
+            final KernelBankTask left = new KernelBankTask(gray, kernelSizes, chunks, from, middle);
+            left.fork();
+            final Mat right = new KernelBankTask(gray, kernelSizes, chunks, middle, to).compute();
+            final Mat sum = left.join();
+            Core.add(sum, right, sum);
+            right.release();
+            return sum;
+        }
+    }
+
+    private static class MagnitudeTask extends RecursiveAction {
+
+        private final Mat   gray;
+        private final int[] kernelSizes;
+        private final Mat[] magnitudes;
+        private final int   from;
+        private final int   to;
+
+        MagnitudeTask(final Mat gray, final int[] kernelSizes, final Mat[] magnitudes, final int from, final int to) {
+            this.gray        = gray;
+            this.kernelSizes = kernelSizes;
+            this.magnitudes  = magnitudes;
+            this.from        = from;
+            this.to          = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                final Mat accumulator = Mat.zeros(gray.size(), CvType.CV_32F);
+                try (MatPool.Scope scope = MatPool.open()) {
+                    final Mat derivative = scope.acquire(gray.rows(), gray.cols(), CvType.CV_16S);
+                    accumulate(gray, kernelSizes[from], accumulator, derivative);
+                }
+                magnitudes[from] = accumulator;
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new MagnitudeTask(gray, kernelSizes, magnitudes, from, middle),
+                    new MagnitudeTask(gray, kernelSizes, magnitudes, middle, to));
+        }
+    }
+
+    /* chunks as in KernelBankTask; a leaf sums its kernels in its thread's accumulator and
+     * adds it to total once, without any fork or join while it holds the thread's buffers */
+    private static class FusedKernelBankTask extends RecursiveAction {
+
+        private final Mat   gray;
+        private final int[] kernelSizes;
+        private final Mat   total;
+        private final int   chunks;
+        private final int   from;
+        private final int   to;
+
+        FusedKernelBankTask(final Mat gray, final int[] kernelSizes, final Mat total, final int chunks,
+                final int from, final int to) {
+            this.gray        = gray;
+            this.kernelSizes = kernelSizes;
+            this.total       = total;
+            this.chunks      = chunks;
+            this.from        = from;
+            this.to          = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new FusedKernelBankTask(gray, kernelSizes, total, chunks, from, middle),
+                        new FusedKernelBankTask(gray, kernelSizes, total, chunks, middle, to));
+                return;
+            }
+            final int pixels = gray.rows() * gray.cols();
+            final ByteBuffer[] buffers = BUFFERS.get();
+            final ByteBuffer dx = buffer(buffers, 0, 2 * pixels);
+            final ByteBuffer dy = buffer(buffers, 1, 2 * pixels);
+            final ByteBuffer sum = buffer(buffers, 2, 2 * pixels);
+            final Mat derivativeX = Imager.wrap(dx, gray.rows(), gray.cols(), CvType.CV_16S);
+            final Mat derivativeY = Imager.wrap(dy, gray.rows(), gray.cols(), CvType.CV_16S);
+            final Mat accumulator = Imager.wrap(sum, gray.rows(), gray.cols(), CvType.CV_16S);
+            try {
+                accumulator.setTo(ZERO);
+                for (int k = from; k < kernelSizes.length; k += chunks) {
+                    Imgproc.Sobel(gray, derivativeX, CvType.CV_16S, 1, 0, kernelSizes[k], 1, 0);
+                    Imgproc.Sobel(gray, derivativeY, CvType.CV_16S, 0, 1, kernelSizes[k], 1, 0);
+                    PixelKernels.VECTORIZED.accumulateAbs(dx, dy, sum, pixels);
+                }
+                /* at most MAX_FUSED_KERNELS * 510 in total, so the CV_16S add never saturates */
+                synchronized (total) {
+                    Core.add(total, accumulator, total);
+                }
+            } finally {
+                derivativeX.release();
+                derivativeY.release();
+                accumulator.release();
+                for (int slot = 0; slot < buffers.length; slot++) {
+                    if (buffers[slot].capacity() > MAX_CACHED_BYTES) {
+                        buffers[slot] = null;
+                    }
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
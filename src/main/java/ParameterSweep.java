@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/* SCIDOG over a grid of parameter sets for one image, for tuning. Sets that downscale the
+ * image by the same factor share the contrast multiplied image and run their convergence
+ * loops in lockstep: iteration i median blurs that image and converts it to gray once,
+ * and takes the magnitudes of every kernel in any of their banks once, see
+ * Omnigradient.magnitudes. Sets with the same bank also share the omnigradient, its
+ * blur and the merges, and only differ in the iteration their convergence threshold or
+ * iteration limit stops them at, so a grid costs about as much as its slowest set per
+ * bank. The contours are identical to those of Segmenter.segment.
+ *
+ * Sets with a pyramid or a deadline depend on more than the shared intermediates and
+ * run through Segmenter on their own. The tile size is ignored, and listeners are only
+ * notified by the sets that run on their own. */
+public class ParameterSweep {
+
+    /* the largest contour of every set, in order; null where the final threshold has no region */
+    public static List<Contour> segment(final Mat src, final List<SegmenterOptions> sets) throws SegmentationException {
+        if (src == null || src.empty()) {
+            throw new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE, "image is empty");
+        }
+        final Contour[] contours = new Contour[sets.size()];
+        final Map<Double, Map<String, Trajectory>> groups = new LinkedHashMap<>();
+        for (int x = 0; x < sets.size(); x++) {
+            final SegmenterOptions options = sets.get(x);
+            if (options.pyramid() || options.deadline()) {
+                contours[x] = alone(src, options);
+            } else {
+                final double scaleFactor = Math.min(1, Imager.scaleFactor(src.cols(), src.rows(),
+                        options.maxWidth, options.maxHeight));
+                groups.computeIfAbsent(scaleFactor, factor -> new LinkedHashMap<>())
+                        .computeIfAbsent(Arrays.toString(options.kernelSizes), bank -> new Trajectory(options.kernelSizes))
+                        .waiting.add(x);
+            }
+        }
+        try (MatPool.Scope scope = MatPool.open()) {
+            for (final Map.Entry<Double, Map<String, Trajectory>> group : groups.entrySet()) {
+                final List<Trajectory> trajectories = new ArrayList<>(group.getValue().values());
+                try {
+                    sweep(src, group.getKey(), trajectories, sets, contours, scope);
+                } finally {
+                    trajectories.forEach(trajectory -> trajectory.merges.release());
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new SegmentationException(SegmentationException.Reason.PROCESSING_ERROR, e.getMessage(), e);
+        }
+        return Arrays.asList(contours);
+    }
+
+    private static Contour alone(final Mat src, final SegmenterOptions options) throws SegmentationException {
+        try {
+            return Segmenter.segment(src, options);
+        } catch (SegmentationException e) {
+            if (e.reason != SegmentationException.Reason.NO_CONTOUR) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /* the lockstep convergence loops of every bank at scaleFactor */
+    private static void sweep(final Mat src, final double scaleFactor, final List<Trajectory> trajectories,
+            final List<SegmenterOptions> sets, final Contour[] contours, final MatPool.Scope scope) {
+        final Mat multiplied;
+        if (scaleFactor < 1) {
+            final Size scaledSize = Imager.scaledSize(src, scaleFactor);
+            multiplied = Imager.scale(src, scaleFactor,
+                    scope.acquire((int) scaledSize.height, (int) scaledSize.width, src.type()));
+        } else {
+            multiplied = scope.acquire(src);
+            src.copyTo(multiplied);
+        }
+        Core.multiply(multiplied, Segmenter.contrastMultiplier(multiplied), multiplied);
+
+        final Mat mat = scope.acquire(multiplied);
+        final Mat gray = scope.acquire(multiplied.rows(), multiplied.cols(), CvType.CV_8U);
+        final Mat sum = scope.acquire(gray.rows(), gray.cols(), CvType.CV_32F);
+        final Mat omnigradient = scope.acquire(gray);
+        final Mat finalMerge = scope.acquire(gray);
+        final List<Trajectory> active = new ArrayList<>(trajectories);
+        for (int iteration = 1; !active.isEmpty(); iteration++) {
+            Imgproc.medianBlur(multiplied, mat, 2 * iteration + 1);
+            Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
+
+            final Set<Integer> kernelSizes = new LinkedHashSet<>();
+            active.forEach(trajectory -> Arrays.stream(trajectory.bank).forEach(kernelSizes::add));
+            final int[] bank = kernelSizes.stream().mapToInt(Integer::intValue).toArray();
+            final Mat[] magnitudes = Omnigradient.magnitudes(gray, bank);
+            final Map<Integer, Mat> byKernelSize = new LinkedHashMap<>();
+            for (int x = 0; x < bank.length; x++) {
+                byKernelSize.put(bank[x], magnitudes[x]);
+            }
+
+            for (int t = active.size() - 1; t >= 0; t--) {
+                final Trajectory trajectory = active.get(t);
+                byKernelSize.get(trajectory.bank[0]).copyTo(sum);
+                for (int x = 1; x < trajectory.bank.length; x++) {
+                    Core.add(sum, byKernelSize.get(trajectory.bank[x]), sum);
+                }
+                /* the conversion of Omnigradient.compute */
+                sum.convertTo(omnigradient, CvType.CV_8U, 0.5 / trajectory.bank.length);
+
+                final double previousAverage = trajectory.average;
+                trajectory.average = Core.mean(omnigradient).val[0];
+                Imgproc.medianBlur(omnigradient, omnigradient, 2 * iteration + 1);
+                trajectory.merges.add(omnigradient);
+
+                for (int w = trajectory.waiting.size() - 1; w >= 0; w--) {
+                    final int index = trajectory.waiting.get(w);
+                    final SegmenterOptions options = sets.get(index);
+                    /* the stopping rule of Segmenter.converge, with iteration not yet incremented */
+                    if (trajectory.average / previousAverage >= options.convergenceThreshold
+                            || (options.maxIterations > 0 && iteration >= options.maxIterations)) {
+                        contours[index] = contour(trajectory.merges, iteration + 1, scaleFactor, options, finalMerge);
+                        trajectory.waiting.remove(w);
+                    }
+                }
+                if (trajectory.waiting.isEmpty()) {
+                    trajectory.merges.release();
+                    active.remove(t);
+                }
+            }
+            for (final Mat magnitude : magnitudes) {
+                magnitude.release();
+            }
+        }
+    }
+
+    /* the final blur, threshold and contour of Segmenter.single */
+    private static Contour contour(final RunningMean merges, final int iteration, final double scaleFactor,
+            final SegmenterOptions options, final Mat finalMerge) {
+        merges.mean(finalMerge);
+        Imgproc.medianBlur(finalMerge, finalMerge, 2 * iteration + 1);
+        Core.inRange(finalMerge, Core.mean(finalMerge), new Scalar(255), finalMerge);
+        final List<Contour> contours = options.regions.contours(finalMerge, new Point());
+        if (contours.isEmpty()) {
+            return null;
+        }
+        return (scaleFactor < 1) ? contours.get(0).scale(1 / scaleFactor) : contours.get(0);
+    }
+
+    /* the convergence loop of one kernel bank, shared by every set waiting on it */
+    private static final class Trajectory {
+
+        final int[]         bank;
+        final RunningMean   merges  = new RunningMean();
+        final List<Integer> waiting = new ArrayList<>();
+        double              average = -1;
+
+        Trajectory(final int[] bank) {
+            this.bank = bank;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Mergeable fixed-bin percentile sketch for one channel. Bin b counts values in
+ * [min + b * binWidth, min + (b + 1) * binWidth) and values outside [min, max] are
+ * clamped to the edge bins. Percentiles interpolate between the lower edges of the
+ * bins of the two neighbouring ranks as Stats.percentilesFromHistogram does, so integer
+ * data sketched with a bin width of 1 (see forDepth and forRange) gives exactly the
+ * percentiles of Stats.percentiles, and otherwise a percentile is less than one bin
+ * width below the sorted result. Sketches of the same layout can be filled on separate
+ * threads and merged. */
+public class PercentileSketch {
+
+    public final double min;
+    public final double max;
+    public final double binWidth;
+
+    private final long[] counts;
+
+    public PercentileSketch(final double min, final double max, final int bins) {
+        if (!(max > min) || bins < 1) {
+            throw new IllegalArgumentException("invalid sketch layout [" + min + ", " + max + "] / " + bins);
+        }
+        this.min      = min;
+        this.max      = max;
+        this.binWidth = (max - min) / Math.max(1, bins - 1);
+        this.counts   = new long[bins];
+    }
+
+    /* bins of the sketches whose range is not a fixed 8- or 16-bit one */
+    public static final int MAX_BINS = 65536;
+
+    /* exact sketches for the 8- and 16-bit depths; CV_32S and floating point data have no
+     * range a fixed layout could cover, so they are sketched with forRange */
+    public static PercentileSketch forDepth(final int depth) {
+        switch (depth) {
+            case CvType.CV_8U:  return new PercentileSketch(0, 255, 256);
+            case CvType.CV_8S:  return new PercentileSketch(-128, 127, 256);
+            case CvType.CV_16U: return new PercentileSketch(0, 65535, 65536);
+            case CvType.CV_16S: return new PercentileSketch(-32768, 32767, 65536);
+            default:
+                throw new IllegalArgumentException("the range of " + CvType.typeToString(depth)
+                        + " data must be measured, see forRange");
+        }
+    }
+
+    /* a sketch of data of the given depth within [min, max]: exact for integer depths
+     * spanning at most MAX_BINS values, otherwise MAX_BINS bins over the range */
+    public static PercentileSketch forRange(final int depth, final double min, final double max) {
+        final boolean integer = depth != CvType.CV_32F && depth != CvType.CV_64F;
+        if (integer && max - min + 1 <= MAX_BINS) {
+            return new PercentileSketch(min, Math.max(max, min + 1), (int) (Math.max(max, min + 1) - min) + 1);
+        }
+        return new PercentileSketch(min, (max > min) ? max : min + 1, MAX_BINS);
+    }
+
+    /* one sketch per channel of the Mat; the range of each CV_32S or floating point
+     * channel is taken from Core.minMaxLoc first, so nothing is clamped */
+    public static PercentileSketch[] of(final Mat mat) {
+        final PercentileSketch[] sketches = new PercentileSketch[mat.channels()];
+        final boolean fixed = mat.depth() == CvType.CV_8U || mat.depth() == CvType.CV_8S
+                || mat.depth() == CvType.CV_16U || mat.depth() == CvType.CV_16S;
+        final Mat channel = (fixed || mat.channels() == 1) ? mat : new Mat();
+        for (int c = 0; c < sketches.length; c++) {
+            if (fixed) {
+                sketches[c] = forDepth(mat.depth());
+                continue;
+            }
+            if (channel != mat) {
+                Core.extractChannel(mat, channel, c);
+            }
+            final Core.MinMaxLocResult range = Core.minMaxLoc(channel);
+            sketches[c] = forRange(mat.depth(), range.minVal, range.maxVal);
+        }
+        if (channel != mat) {
+            channel.release();
+        }
+        addAll(sketches, mat);
+        return sketches;
+    }
+
+    /* add every pixel of the Mat to the sketch of its channel; each depth is read in a type
+     * that holds its values exactly, so integer data lands in its own bin of width 1 */
+    public static void addAll(final PercentileSketch[] sketches, final Mat mat) {
+        if (sketches.length != mat.channels()) {
+            throw new IllegalArgumentException(sketches.length + " sketches for " + mat.channels() + " channels");
+        }
+        switch (mat.depth()) {
+            case CvType.CV_8U:
+            case CvType.CV_8S: {
+                final boolean signed = mat.depth() == CvType.CV_8S;
+                final byte[][] planes = Imager.planarBytes(mat);
+                for (int c = 0; c < sketches.length; c++) {
+                    if (signed) {
+                        for (final byte value : planes[c]) {
+                            sketches[c].counts[sketches[c].bin(value)]++;
+                        }
+                    } else {
+                        sketches[c].add(planes[c]);
+                    }
+                }
+                break;
+            }
+            case CvType.CV_16U:
+            case CvType.CV_16S: {
+                final int mask = (mat.depth() == CvType.CV_16U) ? 0xFFFF : -1;
+                final short[][] planes = Imager.planarShorts(mat);
+                for (int c = 0; c < sketches.length; c++) {
+                    for (final short value : planes[c]) {
+                        sketches[c].counts[sketches[c].bin(value & mask)]++;
+                    }
+                }
+                break;
+            }
+            case CvType.CV_32S:
+            case CvType.CV_64F:
+                addWide(sketches, mat);
+                break;
+            default: {
+                final float[][] planes = Imager.planarFloats(mat);
+                for (int c = 0; c < sketches.length; c++) {
+                    sketches[c].add(planes[c]);
+                }
+            }
+        }
+    }
+
+    /* CV_32S channels read as int and CV_64F ones as double, which a float would round */
+    private static void addWide(final PercentileSketch[] sketches, final Mat mat) {
+        final int pixels = (int) mat.total();
+        final int[] ints = (mat.depth() == CvType.CV_32S) ? new int[pixels] : null;
+        final double[] doubles = (ints == null) ? new double[pixels] : null;
+        final Mat plane = (mat.channels() == 1) ? mat : MatPool.acquire(mat.rows(), mat.cols(), mat.depth());
+        try {
+            for (int c = 0; c < sketches.length; c++) {
+                if (plane != mat) {
+                    Core.extractChannel(mat, plane, c);
+                }
+                if (ints != null) {
+                    plane.get(0, 0, ints);
+                    sketches[c].add(ints);
+                } else {
+                    plane.get(0, 0, doubles);
+                    sketches[c].add(doubles);
+                }
+            }
+        } finally {
+            if (plane != mat) {
+                MatPool.release(plane);
+            }
+        }
+    }
+
+    public void add(final double value) {
+        counts[bin(value)]++;
+    }
+
+    public void add(final double... values) {
+        for (final double value : values) {
+            counts[bin(value)]++;
+        }
+    }
+
+    public void add(final float... values) {
+        for (final float value : values) {
+            counts[bin(value)]++;
+        }
+    }
+
+    public void add(final int... values) {
+        for (final int value : values) {
+            counts[bin(value)]++;
+        }
+    }
+
+    /* unsigned 8-bit values */
+    public void add(final byte... values) {
+        for (final byte value : values) {
+            counts[bin(value & 0xFF)]++;
+        }
+    }
+
+    public void merge(final PercentileSketch other) {
+        if (other.min != min || other.max != max || other.counts.length != counts.length) {
+            throw new IllegalArgumentException("cannot merge sketches with different layouts");
+        }
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] += other.counts[b];
+        }
+    }
+
+    public long count() {
+        long count = 0;
+        for (final long c : counts) {
+            count += c;
+        }
+        return count;
+    }
+
+    public double median() {
+        return percentiles(0.5)[0];
+    }
+
+    public double[] percentiles(final double... percentages) {
+        return Stats.percentilesFromHistogram(counts, min, binWidth, percentages);
+    }
+
+    private int bin(final double value) {
+        if (!(value > min)) {
+            return 0;
+        }
+        final int bin = (int) ((value - min) / binWidth);
+        return (bin < counts.length) ? bin : counts.length - 1;
+    }
+}
\ No newline at end of file
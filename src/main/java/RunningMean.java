@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Incremental weighted mean of equally sized Mats. Only the CV_32F weighted sum is kept,
+ * so averaging any number of Mats holds one accumulator instead of every input. The
+ * mean is rounded to the type of the added Mats once, which makes it the exact version
+ * of Imager.mean: that rounds after every addition and can drift by a gray level per Mat. */
+public class RunningMean {
+
+    private Mat    sum;
+    private int    type = -1;
+    private double weight;
+    private long   count;
+
+    public void add(final Mat mat) {
+        add(mat, 1);
+    }
+
+    public void add(final Mat mat, final double weight) {
+        if (sum == null) {
+            type = mat.type();
+            sum = Mat.zeros(mat.size(), CvType.CV_32FC(mat.channels()));
+        } else if (mat.type() != type || !mat.size().equals(sum.size())) {
+            throw new IllegalArgumentException("cannot average " + CvType.typeToString(mat.type()) + " " + mat.size()
+                    + " with " + CvType.typeToString(type) + " " + sum.size());
+        }
+        Core.addWeighted(sum, 1, mat, weight, 0, sum, CvType.CV_32F);
+        this.weight += weight;
+        this.count++;
+    }
+
+    /* folds another accumulator of the same shape into this one */
+    public void merge(final RunningMean other) {
+        if (other.sum == null) {
+            return;
+        }
+        if (sum == null) {
+            type = other.type;
+            sum = other.sum.clone();
+        } else if (other.type != type || !other.sum.size().equals(sum.size())) {
+            throw new IllegalArgumentException("cannot merge running means of different shapes");
+        } else {
+            Core.add(sum, other.sum, sum);
+        }
+        weight += other.weight;
+        count += other.count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double weight() {
+        return weight;
+    }
+
+    public Mat mean() {
+        return mean(new Mat());
+    }
+
+    /* writes the mean into dst, converted to the type of the added Mats */
+    public Mat mean(final Mat dst) {
+        if (sum == null) {
+            throw new IllegalStateException("no Mats have been added");
+        }
+        sum.convertTo(dst, CvType.depth(type), 1 / weight);
+        return dst;
+    }
+
+    public void release() {
+        if (sum != null) {
+            sum.release();
+            sum = null;
+        }
+        type = -1;
+        weight = 0;
+        count = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Append-only store of segmentation outputs: a run-length encoded binary mask and the
+ * contours of every image, looked up by image ID. Writing one record costs a copy into
+ * a memory-mapped file instead of an encoded image file per result, and reading one
+ * hands out read-only views of the mapping, so nothing is copied until a mask or the
+ * contours are actually materialized.
+ *
+ * A directory holds two files. segments.dat is mapped in fixed-size segments that grow
+ * the file as they are added; records never straddle two segments:
+ *
+ *     header: int magic "SCDS", int format version, long segment bytes,
+ *             long committed end, long record count
+ *     record: int length of the rest, int n, byte[n] UTF-8 ID padded to 4 bytes,
+ *             int rows, int cols, int r, int[r] mask runs,
+ *             int contour count, then per contour int p, float[2p] x, y pairs
+ *
+ * A length of 0, or fewer than 4 bytes left, marks the rest of a segment as unused. The
+ * mask runs alternate between background and foreground pixels in row-major order,
+ * starting with a possibly empty background run. A mask from Segmenter.Result keeps the
+ * size the image was segmented at, while the contours are in source pixels. segments.idx
+ * lists the ID and offset of every record in append order after its own magic "SCDI" and
+ * version; it is loaded into memory on open. All numbers are big-endian.
+ *
+ * A record only counts once the committed end in the header covers it, so a crash in
+ * the middle of an append loses that record and nothing else; index entries missing
+ * after a crash are rebuilt from the data on the next open. When an ID is appended
+ * again, get returns the latest record while iteration still visits every record.
+ * Appends are serialized; lookups and iteration are thread-safe and may run alongside
+ * them. A read-only store sees the records committed when it was opened. */
+public class SegmentStore implements Closeable, Iterable<SegmentStore.Entry> {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 28;
+
+    private static final int    MAGIC          = 0x53434453;
+    private static final int    INDEX_MAGIC    = 0x53434449;
+    private static final int    FORMAT_VERSION = 1;
+    private static final int    HEADER_BYTES   = 32;
+    private static final int    END_OFFSET     = 16;
+    private static final int    COUNT_OFFSET   = 24;
+    private static final String DATA_FILE      = "segments.dat";
+    private static final String INDEX_FILE     = "segments.idx";
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final boolean     readOnly;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final long        segmentBytes;
+
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+    private volatile ByteBuffer[] segments;
+    private volatile long end;
+    private volatile long records;
+    private long indexEnd;
+
+    /* opens the store in directory for appending, creating it when missing */
+    public SegmentStore(final File directory) throws IOException {
+        this(directory, false, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public static SegmentStore readOnly(final File directory) throws IOException {
+        return new SegmentStore(directory, true, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /* segmentBytes only applies to a new store; an existing one keeps the size it was created with */
+    public SegmentStore(final File directory, final boolean readOnly, final long segmentBytes) throws IOException {
+        if (segmentBytes < 4096 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be within [4096, " + Integer.MAX_VALUE + "]");
+        }
+        if (!readOnly && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("cannot create store directory " + directory);
+        }
+        this.readOnly = readOnly;
+        final Path dataPath  = directory.toPath().resolve(DATA_FILE);
+        final Path indexPath = directory.toPath().resolve(INDEX_FILE);
+        this.data = readOnly ? FileChannel.open(dataPath, StandardOpenOption.READ)
+                : FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            this.index = readOnly ? FileChannel.open(indexPath, StandardOpenOption.READ)
+                    : FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE);
+            try {
+                if (data.size() == 0 && !readOnly) {
+                    this.segmentBytes = segmentBytes;
+                    this.segments = new ByteBuffer[] {map(0)};
+                    this.end = HEADER_BYTES;
+                    this.segments[0].duplicate().putInt(MAGIC).putInt(FORMAT_VERSION).putLong(segmentBytes)
+                            .putLong(end).putLong(0);
+                } else {
+                    final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    while (header.hasRemaining() && data.read(header, header.position()) >= 0) {
+                    }
+                    header.flip();
+                    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC
+                            || header.getInt() != FORMAT_VERSION) {
+                        throw new IOException(dataPath + " is not a SCIDOG segment store");
+                    }
+                    this.segmentBytes = header.getLong();
+                    this.end = header.getLong();
+                    this.records = header.getLong();
+                    final ByteBuffer[] mapped = new ByteBuffer[(int) ((data.size() + this.segmentBytes - 1) / this.segmentBytes)];
+                    for (int x = 0; x < mapped.length; x++) {
+                        mapped[x] = map(x);
+                    }
+                    this.segments = mapped;
+                }
+                loadIndex(indexPath);
+            } catch (IOException | RuntimeException e) {
+                index.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer map(final int segment) throws IOException {
+        return data.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                segment * segmentBytes, segmentBytes);
+    }
+
+    private void loadIndex(final Path indexPath) throws IOException {
+        final long size = index.size();
+        long recovered = HEADER_BYTES;
+        if (size == 0) {
+            if (!readOnly) {
+                writeIndex(ByteBuffer.allocate(8).putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).flip());
+            }
+        } else {
+            final MappedByteBuffer entries = index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < 8 || entries.getInt() != INDEX_MAGIC || entries.getInt() != FORMAT_VERSION) {
+                throw new IOException(indexPath + " is not a SCIDOG segment index");
+            }
+            indexEnd = 8;
+            /* a torn last entry or one past the committed end is dropped and rebuilt from the data */
+            while (entries.remaining() >= 4) {
+                final int length = entries.getInt();
+                if (length < 0 || entries.remaining() < length + 8) {
+                    break;
+                }
+                final byte[] id = new byte[length];
+                entries.get(id);
+                final long offset = entries.getLong();
+                if (offset < HEADER_BYTES || offset >= end) {
+                    break;
+                }
+                offsets.put(new String(id, StandardCharsets.UTF_8), offset);
+                recovered = offset + 4 + record(offset).getInt(0);
+                indexEnd = entries.position();
+            }
+            if (!readOnly && indexEnd < size) {
+                index.truncate(indexEnd);
+            }
+        }
+        for (long position = skipUnused(recovered, end); position < end; position = next(position)) {
+            final Entry entry = entry(position);
+            offsets.put(entry.id, position);
+            if (!readOnly) {
+                writeIndex(entry.id.getBytes(StandardCharsets.UTF_8), position);
+            }
+        }
+    }
+
+    /* appends a record and returns its offset; mask may be null or an empty Mat when only contours are kept */
+    public synchronized long append(final String id, final Mat mask, final List<Contour> contours) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("the store was opened read-only");
+        }
+        final byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        final boolean hasMask = mask != null && !mask.empty();
+        final int[] runs = hasMask ? encode(mask) : new int[0];
+        long length = 4 + align(idBytes.length) + 12 + 4L * runs.length + 4;
+        for (final Contour contour : contours) {
+            length += 4 + 8L * contour.size();
+        }
+        if (4 + length > segmentBytes - HEADER_BYTES) {
+            throw new IllegalArgumentException("a record of " + (4 + length) + " bytes does not fit a segment of "
+                    + segmentBytes + " bytes");
+        }
+
+        long position = end;
+        final long unused = segmentBytes - position % segmentBytes;
+        if (4 + length > unused) {
+            if (unused >= 4) {
+                record(position).putInt(0, 0);
+            }
+            position += unused;
+        }
+        while (segments.length * segmentBytes < position + 4 + length) {
+            final ByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[segments.length] = map(segments.length);
+            segments = grown;
+        }
+
+        final ByteBuffer record = record(position);
+        record.putInt((int) length).putInt(idBytes.length).put(idBytes);
+        record.position(record.position() + align(idBytes.length) - idBytes.length);
+        record.putInt(hasMask ? mask.rows() : 0).putInt(hasMask ? mask.cols() : 0).putInt(runs.length);
+        record.asIntBuffer().put(runs);
+        record.position(record.position() + 4 * runs.length);
+        record.putInt(contours.size());
+        for (final Contour contour : contours) {
+            record.putInt(contour.size());
+            record.asFloatBuffer().put(contour.coordinates());
+            record.position(record.position() + 8 * contour.size());
+        }
+
+        /* committing moves the end past the record; only then is it indexed */
+        end = position + 4 + length;
+        records++;
+        segments[0].putLong(END_OFFSET, end).putLong(COUNT_OFFSET, records);
+        writeIndex(idBytes, position);
+        offsets.put(id, position);
+        return position;
+    }
+
+    public long append(final String id, final List<Contour> contours) throws IOException {
+        return append(id, null, contours);
+    }
+
+    /* appends the contours of a result and its mask, when Segmenter.segmentResult kept one */
+    public long append(final String id, final Segmenter.Result result) throws IOException {
+        return append(id, result.mask, result.contours);
+    }
+
+    /* the latest record appended under id, or null */
+    public Entry get(final String id) {
+        final Long offset = offsets.get(id);
+        return (offset == null) ? null : entry(offset);
+    }
+
+    public boolean contains(final String id) {
+        return offsets.containsKey(id);
+    }
+
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(offsets.keySet());
+    }
+
+    /* records in the store, counting every append of a repeated ID */
+    public long records() {
+        return records;
+    }
+
+    /* bytes of the data file in use, including the header and unused segment tails */
+    public long bytes() {
+        return end;
+    }
+
+    /* every record committed when iteration starts, in append order */
+    @Override
+    public Iterator<Entry> iterator() {
+        final long limit = end;
+        return new Iterator<Entry>() {
+
+            private long position = skipUnused(HEADER_BYTES, limit);
+
+            @Override
+            public boolean hasNext() {
+                return position < limit;
+            }
+
+            @Override
+            public Entry next() {
+                if (position >= limit) {
+                    throw new NoSuchElementException();
+                }
+                final Entry entry = entry(position);
+                position = skipUnused(position + 4 + entry.length, limit);
+                return entry;
+            }
+        };
+    }
+
+    public Stream<Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /* forces appended records and index entries to the storage device */
+    public synchronized void force() throws IOException {
+        for (final ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+        index.force(false);
+    }
+
+    /* entries already handed out stay readable; the mappings are released once they are unreachable */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+
+    /* run lengths of an 8-bit single channel mask, alternating between zero and non-zero pixels */
+    static int[] encode(final Mat mask) {
+        if (mask.channels() != 1) {
+            throw new IllegalArgumentException("masks have a single channel");
+        }
+        final byte[] pixels = Imager.interleavedBytes(mask, null);
+        int[] runs = new int[64];
+        int count = 0;
+        int x = 0;
+        while (true) {
+            final int background = x;
+            /* whole words of 0 or 255 pixels are skipped 8 at a time, which covers most of a thresholded mask */
+            while (x + 8 <= pixels.length && (long) LONGS.get(pixels, x) == 0) {
+                x += 8;
+            }
+            while (x < pixels.length && pixels[x] == 0) {
+                x++;
+            }
+            final int foreground = x;
+            while (x + 8 <= pixels.length && (long) LONGS.get(pixels, x) == -1) {
+                x += 8;
+            }
+            while (x < pixels.length && pixels[x] != 0) {
+                x++;
+            }
+            if (count + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, 2 * runs.length);
+            }
+            runs[count++] = foreground - background;
+            if (foreground == pixels.length) {
+                break;
+            }
+            runs[count++] = x - foreground;
+            if (x == pixels.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(runs, count);
+    }
+
+    private static int align(final int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    /* a view of the data file starting at position, up to the end of its segment */
+    private ByteBuffer record(final long position) {
+        final ByteBuffer record = segments[(int) (position / segmentBytes)].duplicate();
+        record.position((int) (position % segmentBytes));
+        return record.slice();
+    }
+
+    private long next(final long position) {
+        return skipUnused(position + 4 + record(position).getInt(0), end);
+    }
+
+    private long skipUnused(final long position, final long limit) {
+        final long unused = segmentBytes - position % segmentBytes;
+        if (position < limit && (unused < 4 || record(position).getInt(0) == 0)) {
+            return position + unused;
+        }
+        return position;
+    }
+
+    private Entry entry(final long position) {
+        final ByteBuffer record = record(position).asReadOnlyBuffer();
+        final int length = record.getInt();
+        record.limit(4 + length);
+        return new Entry(position, length, record.slice());
+    }
+
+    private void writeIndex(final byte[] id, final long offset) throws IOException {
+        writeIndex(ByteBuffer.allocate(4 + id.length + 8).putInt(id.length).put(id).putLong(offset).flip());
+    }
+
+    private void writeIndex(final ByteBuffer entry) throws IOException {
+        while (entry.hasRemaining()) {
+            indexEnd += index.write(entry, indexEnd);
+        }
+    }
+
+    public static final class Entry {
+
+        public final String id;
+        /* where the record starts in the data file */
+        public final long   offset;
+        public final int    rows;
+        public final int    cols;
+
+        private final int        length;
+        private final ByteBuffer record;
+        private final int        runCount;
+        private final int        runsStart;
+        private final int        contoursStart;
+
+        private Entry(final long offset, final int length, final ByteBuffer record) {
+            this.offset = offset;
+            this.length = length;
+            this.record = record;
+            final int idLength = record.getInt(0);
+            final byte[] id = new byte[idLength];
+            record.duplicate().position(4).get(id);
+            this.id = new String(id, StandardCharsets.UTF_8);
+            final int maskStart = 4 + align(idLength);
+            this.rows          = record.getInt(maskStart);
+            this.cols          = record.getInt(maskStart + 4);
+            this.runCount      = record.getInt(maskStart + 8);
+            this.runsStart     = maskStart + 12;
+            this.contoursStart = runsStart + 4 * runCount;
+        }
+
+        /* the mask runs, alternating between background and foreground, without copying them */
+        public IntBuffer runs() {
+            return slice(runsStart, 4 * runCount).asIntBuffer();
+        }
+
+        /* foreground pixels of the mask */
+        public long area() {
+            long area = 0;
+            for (int x = 1; x < runCount; x += 2) {
+                area += record.getInt(runsStart + 4 * x);
+            }
+            return area;
+        }
+
+        public boolean hasMask() {
+            return rows > 0 && cols > 0;
+        }
+
+        /* the decoded CV_8U mask with foreground pixels set to 255, or an empty Mat when none was stored */
+        public Mat mask() {
+            return mask(new Mat());
+        }
+
+        public Mat mask(final Mat dst) {
+            if (!hasMask()) {
+                dst.release();
+                return dst;
+            }
+            final byte[] pixels = new byte[rows * cols];
+            int position = 0;
+            for (int x = 0; x < runCount; x++) {
+                final int run = record.getInt(runsStart + 4 * x);
+                if (x % 2 == 1) {
+                    Arrays.fill(pixels, position, position + run, (byte) 255);
+                }
+                position += run;
+            }
+            dst.create(rows, cols, CvType.CV_8U);
+            dst.put(0, 0, pixels);
+            return dst;
+        }
+
+        public int contourCount() {
+            return record.getInt(contoursStart);
+        }
+
+        /* the interleaved x, y coordinates of one contour, without copying them */
+        public FloatBuffer coordinates(final int contour) {
+            final int count = contourCount();
+            if (contour < 0 || contour >= count) {
+                throw new IndexOutOfBoundsException("contour " + contour + " of " + count);
+            }
+            int position = contoursStart + 4;
+            for (int x = 0; x < contour; x++) {
+                position += 4 + 8 * record.getInt(position);
+            }
+            return slice(position + 4, 8 * record.getInt(position)).asFloatBuffer();
+        }
+
+        public List<Contour> contours() {
+            final int count = contourCount();
+            final List<Contour> contours = new ArrayList<>(count);
+            int position = contoursStart + 4;
+            for (int x = 0; x < count; x++) {
+                final float[] coordinates = new float[2 * record.getInt(position)];
+                slice(position + 4, 4 * coordinates.length).asFloatBuffer().get(coordinates);
+                contours.add(new Contour(coordinates));
+                position += 4 + 4 * coordinates.length;
+            }
+            return contours;
+        }
+
+        private ByteBuffer slice(final int position, final int bytes) {
+            final ByteBuffer slice = record.duplicate();
+            slice.position(position).limit(position + bytes);
+            return slice.slice();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencv.imgproc.Moments;
+
+/* Content-addressed cache in front of Segmenter.segmentAll. Entries are keyed by the
+ * SHA-256 of the encoded image bytes together with SegmenterOptions.parameters, so an
+ * edited file or a changed setting is simply another key and nothing is ever stale. A hit
+ * rebuilds the contours with their geometry already computed, without decoding the image.
+ *
+ * Recently used entries are kept in memory up to maxMemoryBytes; with a directory every
+ * entry is also written to disk, one file per key:
+ *
+ *     int magic "SCDG", int format version, int contour count, then per contour
+ *         int n, float[2n] x, y pairs, double area, double perimeter, double[10] m00..m03,
+ *         int h, float[2h] convex hull x, y pairs, double hull area, double hull perimeter
+ *
+ * all big-endian. Files are written to a temporary name and renamed, so concurrent
+ * writers and crashes never leave a torn entry; unreadable files count as misses and
+ * are replaced. Thread-safe. */
+public class SegmentationCache {
+
+    /* part of every key; bump it whenever Segmenter output changes for the same parameters */
+    public static final int ALGORITHM_VERSION = 1;
+
+    private static final int    MAGIC            = 0x53434447;
+    private static final int    FORMAT_VERSION   = 1;
+    private static final String SUFFIX           = ".scidog";
+    /* rough per-contour heap overhead on top of the coordinates */
+    private static final long   CONTOUR_BYTES    = 256;
+    /* magic, format version and contour count */
+    private static final int    HEADER_BYTES     = 3 * 4;
+    /* a stored contour without coordinates: the two point counts and twelve doubles */
+    private static final int    MIN_RECORD_BYTES = 2 * 4 + 12 * 8;
+
+    private final File directory;
+    private final long maxMemoryBytes;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits   = new LongAdder();
+    private final LongAdder misses     = new LongAdder();
+    private final LongAdder evictions  = new LongAdder();
+
+    /* an in-memory cache only */
+    public SegmentationCache(final long maxMemoryBytes) {
+        this(null, maxMemoryBytes);
+    }
+
+    /* directory may be null for an in-memory cache; it is created when missing */
+    public SegmentationCache(final File directory, final long maxMemoryBytes) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("maxMemoryBytes must not be negative");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("cannot create cache directory " + directory);
+        }
+        this.directory      = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    public Contour segment(final File image, final SegmenterOptions options)
+            throws IOException, SegmentationException {
+        return segmentAll(image, options).get(0);
+    }
+
+    public Contour segment(final byte[] image, final SegmenterOptions options)
+            throws IOException, SegmentationException {
+        return segmentAll(image, options).get(0);
+    }
+
+    public List<Contour> segmentAll(final File image, final SegmenterOptions options)
+            throws IOException, SegmentationException {
+        return segmentAll(Files.readAllBytes(image.toPath()), options);
+    }
+
+    /* the cached contours of an encoded image, segmenting and caching them on a miss */
+    public List<Contour> segmentAll(final byte[] image, final SegmenterOptions options)
+            throws IOException, SegmentationException {
+        final String key = key(image, options);
+        final List<Contour> cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Imager.Decoded decoded = Imager.decode(image, options);
+        final Segmenter.Result result;
+        final List<Contour> contours;
+        try {
+            result = Segmenter.segmentResult(decoded.image, options);
+            contours = decoded.toOriginal(result.contours);
+        } finally {
+            decoded.release();
+        }
+        /* the deadline is not part of the key, so contours it cut short are not cached */
+        if (result.termination != Segmenter.Termination.DEADLINE) {
+            put(key, contours);
+        }
+        return contours;
+    }
+
+    public static String key(final byte[] image, final SegmenterOptions options) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every JVM provides SHA-256", e);
+        }
+        digest.update(image);
+        digest.update(("\0" + ALGORITHM_VERSION + ";" + options.parameters()).getBytes(StandardCharsets.UTF_8));
+        final StringBuilder hex = new StringBuilder(64);
+        for (final byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /* the contours stored under key, or null */
+    public List<Contour> get(final String key) throws IOException {
+        synchronized (memory) {
+            final Entry entry = memory.get(key);
+            if (entry != null) {
+                memoryHits.increment();
+                return entry.contours;
+            }
+        }
+        final List<Contour> contours = (directory == null) ? null : readFile(key);
+        if (contours == null) {
+            misses.increment();
+            return null;
+        }
+        diskHits.increment();
+        remember(key, contours);
+        return contours;
+    }
+
+    public void put(final String key, final List<Contour> contours) throws IOException {
+        final List<Contour> copy = Collections.unmodifiableList(new ArrayList<>(contours));
+        if (directory != null) {
+            writeFile(key, copy);
+        }
+        remember(key, copy);
+    }
+
+    public Counters counters() {
+        synchronized (memory) {
+            return new Counters(memoryHits.sum(), diskHits.sum(), misses.sum(), evictions.sum(),
+                    memory.size(), memoryBytes);
+        }
+    }
+
+    private void remember(final String key, final List<Contour> contours) {
+        long bytes = 0;
+        for (final Contour contour : contours) {
+            bytes += 4L * (contour.size() + contour.convexHull().size()) * 2 + CONTOUR_BYTES;
+        }
+        synchronized (memory) {
+            final Entry previous = memory.put(key, new Entry(contours, bytes));
+            memoryBytes += bytes - ((previous == null) ? 0 : previous.bytes);
+            final Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().getValue().bytes;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private Path path(final String key) {
+        return directory.toPath().resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    private List<Contour> readFile(final String key) throws IOException {
+        final Path path = path(key);
+        try (SeekableByteChannel channel = Files.newByteChannel(path);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("not a SCIDOG cache entry");
+            }
+            /* every count is checked against the bytes left before anything is allocated for it */
+            long remaining = channel.size() - HEADER_BYTES;
+            final int count = in.readInt();
+            if (count < 0 || count > remaining / MIN_RECORD_BYTES) {
+                throw new IOException("corrupt contour count " + count);
+            }
+            final List<Contour> contours = new ArrayList<>(count);
+            for (int x = 0; x < count; x++) {
+                remaining -= MIN_RECORD_BYTES;
+                final float[] coordinates = readFloats(in, remaining);
+                remaining -= 4L * coordinates.length;
+                final double area = in.readDouble();
+                final double perimeter = in.readDouble();
+                final Moments moments = new Moments(in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+                final float[] hull = readFloats(in, remaining);
+                remaining -= 4L * hull.length;
+                final Contour convexHull = new Contour(hull, null, in.readDouble(), in.readDouble(), null);
+                contours.add(new Contour(coordinates, moments, area, perimeter, convexHull));
+            }
+            return Collections.unmodifiableList(contours);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            /* a foreign, truncated or corrupt file is a miss and gets rewritten */
+            Files.deleteIfExists(path);
+            return null;
+        }
+    }
+
+    private void writeFile(final String key, final List<Contour> contours) throws IOException {
+        final Path path = path(key);
+        Files.createDirectories(path.getParent());
+        final Path temporary = Files.createTempFile(path.getParent(), key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(contours.size());
+                for (final Contour contour : contours) {
+                    writeFloats(out, contour.coordinates());
+                    out.writeDouble(contour.area());
+                    out.writeDouble(contour.perimeter());
+                    final Moments m = contour.moments();
+                    for (final double moment : new double[] {m.m00, m.m10, m.m01, m.m20, m.m11, m.m02,
+                            m.m30, m.m21, m.m12, m.m03}) {
+                        out.writeDouble(moment);
+                    }
+                    final Contour convexHull = contour.convexHull();
+                    writeFloats(out, convexHull.coordinates());
+                    out.writeDouble(convexHull.area());
+                    out.writeDouble(convexHull.perimeter());
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /* the x, y pairs of a point count, which must fit in maxBytes */
+    private static float[] readFloats(final DataInputStream in, final long maxBytes) throws IOException {
+        final int points = in.readInt();
+        if (points < 0 || 8L * points > maxBytes) {
+            throw new IOException("corrupt point count " + points);
+        }
+        final int length = 2 * points;
+        final byte[] bytes = new byte[4 * length];
+        in.readFully(bytes);
+        final float[] floats = new float[length];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(floats);
+        return floats;
+    }
+
+    private static void writeFloats(final DataOutputStream out, final float[] floats) throws IOException {
+        out.writeInt(floats.length / 2);
+        final ByteBuffer bytes = ByteBuffer.allocate(4 * floats.length);
+        bytes.asFloatBuffer().put(floats);
+        out.write(bytes.array());
+    }
+
+    private static final class Entry {
+
+        final List<Contour> contours;
+        final long          bytes;
+
+        Entry(final List<Contour> contours, final long bytes) {
+            this.contours = contours;
+            this.bytes    = bytes;
+        }
+    }
+
+    public static final class Counters {
+
+        public final long memoryHits;
+        public final long diskHits;
+        public final long misses;
+        /* entries dropped from memory to stay within maxMemoryBytes; they remain on disk */
+        public final long evictions;
+        public final int  memoryEntries;
+        public final long memoryBytes;
+
+        private Counters(final long memoryHits, final long diskHits, final long misses, final long evictions,
+                final int memoryEntries, final long memoryBytes) {
+            this.memoryHits    = memoryHits;
+            this.diskHits      = diskHits;
+            this.misses        = misses;
+            this.evictions     = evictions;
+            this.memoryEntries = memoryEntries;
+            this.memoryBytes   = memoryBytes;
+        }
+
+        public double hitRate() {
+            final long lookups = memoryHits + diskHits + misses;
+            return (lookups == 0) ? 0 : (double) (memoryHits + diskHits) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "cache: %d memory hits, %d disk hits, %d misses (%.1f%% hit rate), "
+                    + "%d evictions, %d entries / %d bytes in memory", memoryHits, diskHits, misses,
+                    100 * hitRate(), evictions, memoryEntries, memoryBytes);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+public class SegmentationException extends Exception {
+
+    public enum Reason {
+        /* the image is empty or could not be decoded */
+        UNREADABLE_IMAGE,
+        /* the threshold of the final merge contains no region */
+        NO_CONTOUR,
+        /* OpenCV or the JVM failed while segmenting */
+        PROCESSING_ERROR
+    }
+
+    public final Reason reason;
+
+    public SegmentationException(final Reason reason, final String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public SegmentationException(final Reason reason, final String message, final Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+}
\ No newline at end of file
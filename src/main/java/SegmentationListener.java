@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import org.opencv.core.Mat;
+
+/* Receives per-stage timings, the convergence trajectory and intermediate Mat shapes
+ * from Segmenter. Callbacks run on the segmenting thread, so listeners shared across a
+ * batch must be thread-safe. Every method defaults to doing nothing. */
+public interface SegmentationListener {
+
+    enum Stage {
+        /* downscaling the source to the working resolution */
+        DOWNSCALE,
+        /* channel medians and the contrast multiplication */
+        CONTRAST,
+        /* the whole omnigradient convergence loop */
+        CONVERGENCE,
+        /* averaging the merges and the final median blur */
+        FINAL_BLUR,
+        /* thresholding the final merge at its mean */
+        THRESHOLD,
+        /* extracting the largest contour */
+        CONTOUR,
+        /* scaling the contour back to the source resolution */
+        UPSCALE
+    }
+
+    SegmentationListener NONE = new SegmentationListener() {
+    };
+
+    default void started(final int rows, final int cols) {
+    }
+
+    default void stage(final Stage stage, final long nanos) {
+    }
+
+    /* one convergence iteration; ratio is currentAverage / previousAverage, NaN for the first */
+    default void iteration(final int iteration, final double average, final double ratio, final long nanos) {
+    }
+
+    default void intermediate(final String name, final Mat mat) {
+    }
+
+    /* how the convergence loop ended, just before a successful run completes */
+    default void terminated(final Segmenter.Termination termination) {
+    }
+
+    default void completed(final int iterations, final long nanos, final boolean succeeded) {
+    }
+
+    /* forwards every callback to both listeners */
+    static SegmentationListener tee(final SegmentationListener first, final SegmentationListener second) {
+        return new SegmentationListener() {
+
+            @Override
+            public void started(final int rows, final int cols) {
+                first.started(rows, cols);
+                second.started(rows, cols);
+            }
+
+            @Override
+            public void stage(final Stage stage, final long nanos) {
+                first.stage(stage, nanos);
+                second.stage(stage, nanos);
+            }
+
+            @Override
+            public void iteration(final int iteration, final double average, final double ratio, final long nanos) {
+                first.iteration(iteration, average, ratio, nanos);
+                second.iteration(iteration, average, ratio, nanos);
+            }
+
+            @Override
+            public void intermediate(final String name, final Mat mat) {
+                first.intermediate(name, mat);
+                second.intermediate(name, mat);
+            }
+
+            @Override
+            public void terminated(final Segmenter.Termination termination) {
+                first.terminated(termination);
+                second.terminated(termination);
+            }
+
+            @Override
+            public void completed(final int iterations, final long nanos, final boolean succeeded) {
+                first.completed(iterations, nanos, succeeded);
+                second.completed(iterations, nanos, succeeded);
+            }
+        };
+    }
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Thread-safe SegmentationListener that aggregates latency and iteration histograms
+ * across every segmentation it observes, e.g. a whole BatchSegmenter run. */
+public class SegmentationMetrics implements SegmentationListener {
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LatencyHistogram iterationLatency = new LatencyHistogram();
+    private final LatencyHistogram iterations       = new LatencyHistogram();
+    private final LatencyHistogram latency          = new LatencyHistogram();
+    private final AtomicLong       failures         = new AtomicLong();
+    private final AtomicLong       unconverged      = new AtomicLong();
+
+    public SegmentationMetrics() {
+        for (final Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void stage(final Stage stage, final long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    @Override
+    public void iteration(final int iteration, final double average, final double ratio, final long nanos) {
+        iterationLatency.record(nanos);
+    }
+
+    @Override
+    public void terminated(final Segmenter.Termination termination) {
+        if (termination != Segmenter.Termination.CONVERGED) {
+            unconverged.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void completed(final int iterations, final long nanos, final boolean succeeded) {
+        this.iterations.record(iterations);
+        this.latency.record(nanos);
+        if (!succeeded) {
+            failures.incrementAndGet();
+        }
+    }
+
+    public LatencyHistogram stage(final Stage stage) {
+        return stages.get(stage);
+    }
+
+    public LatencyHistogram iterationLatency() {
+        return iterationLatency;
+    }
+
+    public LatencyHistogram iterations() {
+        return iterations;
+    }
+
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /* successful segmentations that stopped at an iteration limit or deadline */
+    public long unconverged() {
+        return unconverged.get();
+    }
+
+    /* a table of p50 / p90 / p99 / max per stage in milliseconds, plus iteration counts */
+    public String summary() {
+        final StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+                "%-12s %8s %10s %10s %10s %10s%n", "stage", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (final Stage stage : Stage.values()) {
+            appendLatency(summary, stage.name().toLowerCase(Locale.ROOT), stages.get(stage));
+        }
+        appendLatency(summary, "iteration", iterationLatency);
+        appendLatency(summary, "total", latency);
+        summary.append(String.format(Locale.ROOT, "%-12s %8d %10d %10d %10d %10d%n", "iterations", iterations.count(),
+                iterations.percentile(0.5), iterations.percentile(0.9), iterations.percentile(0.99), iterations.max()));
+        summary.append("failures ").append(failures.get()).append(", unconverged ").append(unconverged.get());
+        return summary.toString();
+    }
+
+    private static void appendLatency(final StringBuilder summary, final String name, final LatencyHistogram histogram) {
+        summary.append(String.format(Locale.ROOT, "%-12s %8d %10.2f %10.2f %10.2f %10.2f%n", name, histogram.count(),
+                histogram.percentile(0.5) / 1e6, histogram.percentile(0.9) / 1e6,
+                histogram.percentile(0.99) / 1e6, histogram.max() / 1e6));
+    }
+}
\ No newline at end of file
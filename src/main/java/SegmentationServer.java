@@ -0,0 +1,578 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/* Embeddable HTTP front end for Segmenter on the JDK's built-in server:
+ *
+ *     POST /segment   the encoded image as the body; answers the contours in the
+ *                     coordinates of the image with their points and metrics as JSON
+ *     GET  /health    liveness and the current load
+ *     GET  /stats     request counters and latency percentiles in milliseconds
+ *
+ * Requests are handled on virtual threads when the JVM has them (Java 21, or 19 and 20
+ * with --enable-preview) and otherwise on a pool of REQUEST_THREADS_PER_WORKER threads
+ * per worker, whose queue holds further connections before their bodies are read; they
+ * only wait. Decoding and segmenting run on a fixed pool of worker threads, one per core
+ * by default, so the OpenCV work never oversubscribes the CPU however many connections
+ * are open.
+ *
+ * Admission is bounded by memory rather than by a request count, because a 6000 pixel
+ * photo needs a hundred times the Mats of a thumbnail. A body declared longer than
+ * maxBodyBytes is answered 413 before any of it is read, and every buffer the body is
+ * read into is charged to the budget before it is allocated. Once the body is in, the
+ * charge becomes an estimate from the image header: the encoded bytes, the decoded image
+ * and the working set at the segmentation resolution. A request waits up to
+ * queueTimeoutMillis in all for its charges and is answered 503 with Retry-After when
+ * the budget stays full; an image that could never fit is answered 413. The worker
+ * returns the charge once it is done with the image, so a request whose handler was
+ * interrupted still holds it while its native work runs. The OpenCV native library must
+ * be loaded first. */
+public class SegmentationServer implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 64 << 20;
+
+    /* request threads without virtual threads; they wait for the budget and the workers */
+    public static final int REQUEST_THREADS_PER_WORKER = 8;
+
+    /* native bytes per pixel at the working resolution: the scaled color image and its
+     * blurred copy, gray, omnigradient and merge planes, the CV_32F running sum and the
+     * CV_16S derivatives of the kernel bank */
+    static final long WORKING_BYTES_PER_PIXEL = 32;
+
+    private final HttpServer       server;
+    private final ExecutorService  requests;
+    private final ExecutorService  workers;
+    private final int              workerCount;
+    private final boolean          virtualThreads;
+    private final SegmenterOptions options;
+    private final long             maxNativeBytes;
+    private final long             queueTimeoutMillis;
+    private final int              maxBodyBytes;
+    /* in KiB, so that budgets beyond 2 GiB still fit the int permits */
+    private final Semaphore        nativeBudget;
+
+    private final SegmentationMetrics metrics   = new SegmentationMetrics();
+    private final LatencyHistogram    latency   = new LatencyHistogram();
+    /* from arrival until a worker picks the request up, waiting for memory and then for the worker */
+    private final LatencyHistogram    queueing  = new LatencyHistogram();
+    private final AtomicLong          nativeBytesInFlight = new AtomicLong();
+    private final AtomicInteger       inFlight  = new AtomicInteger();
+    private final LongAdder           succeeded = new LongAdder();
+    private final LongAdder           failed    = new LongAdder();
+    private final LongAdder           rejected  = new LongAdder();
+    private final long                startTime = System.nanoTime();
+
+    public SegmentationServer(final InetSocketAddress address) throws IOException {
+        this(address, Runtime.getRuntime().availableProcessors(), 1L << 30, 5000, SegmenterOptions.DEFAULT);
+    }
+
+    /* the server is bound but not started; port 0 picks a free port, see address() */
+    public SegmentationServer(final InetSocketAddress address, final int workers, final long maxNativeBytes,
+            final long queueTimeoutMillis, final SegmenterOptions options) throws IOException {
+        if (workers < 1 || maxNativeBytes < 1024 || queueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("workers, maxNativeBytes and queueTimeoutMillis are out of range");
+        }
+        this.options            = options.withListener(SegmentationListener.tee(options.listener, metrics));
+        this.maxNativeBytes     = maxNativeBytes;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.maxBodyBytes       = DEFAULT_MAX_BODY_BYTES;
+        this.nativeBudget       = new Semaphore((int) Math.min(Integer.MAX_VALUE, maxNativeBytes >> 10), true);
+        this.workers            = Executors.newFixedThreadPool(workers, MatPool.daemons("scidog-server-worker-"));
+        this.workerCount        = workers;
+        final ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads     = virtual != null;
+        this.requests           = virtualThreads ? virtual : requestPool(REQUEST_THREADS_PER_WORKER * workers);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(requests);
+        this.server.createContext("/segment", this::segment);
+        this.server.createContext("/health", this::health);
+        this.server.createContext("/stats", this::stats);
+    }
+
+    /* Executors.newVirtualThreadPerTaskExecutor, looked up reflectively because the
+     * project targets Java 11, or null when it is missing or needs --enable-preview */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /* a bounded pool whose idle threads time out; connections beyond its threads wait in the queue */
+    private static ExecutorService requestPool(final int threads) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), MatPool.daemons("scidog-server-request-"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    /* the native bytes a request for this encoded image is charged while it is admitted */
+    public long estimateNativeBytes(final byte[] encoded) {
+        Size size = null;
+        try {
+            size = Imager.probeSize(encoded);
+        } catch (IOException | RuntimeException e) {
+            /* left to the decoder to reject */
+        }
+        if (size == null) {
+            /* no ImageIO reader for the format: charge a worker's share of the budget */
+            return Math.max(encoded.length, maxNativeBytes / workerCount);
+        }
+        final int reduction = options.reducedDecode ? Imager.reduction(size, options) : 1;
+        final double decoded = size.width * size.height / (reduction * reduction);
+        final double working = Math.min(decoded, (double) options.maxWidth * options.maxHeight);
+        return encoded.length + (long) (3 * decoded + WORKING_BYTES_PER_PIXEL * working);
+    }
+
+    private void segment(final HttpExchange exchange) throws IOException {
+        final long start = System.nanoTime();
+        final Admission admission = new Admission(start + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis));
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, error("METHOD_NOT_ALLOWED", "POST the encoded image to /segment"));
+                return;
+            }
+            final byte[] body = readBody(exchange, admission);
+            if (body.length == 0) {
+                send(exchange, 400, error(SegmentationException.Reason.UNREADABLE_IMAGE.name(), "the body is empty"));
+                return;
+            }
+            final long bytes = estimateNativeBytes(body);
+            if (bytes > maxNativeBytes) {
+                throw new Rejection(413, "TOO_LARGE", "the image needs about " + (bytes >> 20)
+                        + " MB of native memory, more than the budget of " + (maxNativeBytes >> 20) + " MB");
+            }
+            admission.charge(bytes);
+            inFlight.incrementAndGet();
+            admission.admitted = true;
+            final Future<Segmentation> future = workers.submit(() -> {
+                if (!admission.claim()) {
+                    /* the handler gave up before a worker picked the request up */
+                    return null;
+                }
+                try {
+                    queueing.record(System.nanoTime() - start);
+                    return segmentBody(body);
+                } finally {
+                    admission.release();
+                }
+            });
+            final Segmentation segmentation;
+            try {
+                segmentation = future.get();
+            } catch (InterruptedException e) {
+                /* a running worker cannot be stopped inside OpenCV; it releases the charge when it returns */
+                future.cancel(true);
+                throw e;
+            }
+            succeeded.increment();
+            send(exchange, 200, segmentation.toJson(System.nanoTime() - start));
+        } catch (Rejection e) {
+            rejected.increment();
+            if (e.status == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            send(exchange, e.status, error(e.reason, e.getMessage()));
+        } catch (ExecutionException e) {
+            failed.increment();
+            final SegmentationException failure = (e.getCause() instanceof SegmentationException)
+                    ? (SegmentationException) e.getCause()
+                    : new SegmentationException(SegmentationException.Reason.PROCESSING_ERROR,
+                            String.valueOf(e.getCause()), e.getCause());
+            send(exchange, status(failure.reason), error(failure.reason.name(), failure.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("OVERLOADED", "the server is shutting down"));
+        } finally {
+            /* a charge no worker took over, e.g. of a rejected request */
+            if (admission.claim()) {
+                admission.release();
+            }
+            latency.record(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    /* runs on a worker thread */
+    private Segmentation segmentBody(final byte[] body) throws SegmentationException {
+        final Imager.Decoded decoded;
+        try {
+            decoded = Imager.decode(body, options);
+        } catch (IOException e) {
+            throw new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE, e.toString(), e);
+        }
+        try {
+            if (decoded.image.empty()) {
+                throw new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE,
+                        "the body is not an image OpenCV can decode");
+            }
+            final Segmenter.Result result = Segmenter.segmentResult(decoded.image, options);
+            return new Segmentation(decoded.image.cols() * decoded.reduction, decoded.image.rows() * decoded.reduction,
+                    decoded.toOriginal(result.contours), result.iterations, result.termination);
+        } finally {
+            decoded.release();
+            if (MatPool.DEBUG) {
+                MatPool.reportOutstanding(System.err);
+            }
+        }
+    }
+
+    private static int status(final SegmentationException.Reason reason) {
+        switch (reason) {
+            case UNREADABLE_IMAGE:
+                return 400;
+            case NO_CONTOUR:
+                return 422;
+            default:
+                return 500;
+        }
+    }
+
+    private void health(final HttpExchange exchange) throws IOException {
+        try {
+            final StringBuilder json = new StringBuilder(128).append("{\"status\":\"ok\"");
+            json.append(",\"uptimeSeconds\":").append((System.nanoTime() - startTime) / 1_000_000_000L);
+            json.append(",\"virtualThreads\":").append(virtualThreads);
+            json.append(",\"workers\":").append(workerCount);
+            json.append(",\"inFlight\":").append(inFlight.get());
+            json.append(",\"nativeBytesInFlight\":").append(nativeBytesInFlight.get());
+            json.append(",\"maxNativeBytes\":").append(maxNativeBytes);
+            send(exchange, 200, json.append('}').toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stats(final HttpExchange exchange) throws IOException {
+        try {
+            final StringBuilder json = new StringBuilder(512).append('{');
+            json.append("\"succeeded\":").append(succeeded.sum());
+            json.append(",\"failed\":").append(failed.sum());
+            json.append(",\"rejected\":").append(rejected.sum());
+            json.append(",\"unconverged\":").append(metrics.unconverged());
+            json.append(",\"inFlight\":").append(inFlight.get());
+            json.append(",\"nativeBytesInFlight\":").append(nativeBytesInFlight.get());
+            appendHistogram(json.append(",\"latency\":"), latency);
+            appendHistogram(json.append(",\"queueing\":"), queueing);
+            appendHistogram(json.append(",\"segmentation\":"), metrics.latency());
+            json.append(",\"stages\":{");
+            for (final SegmentationListener.Stage stage : SegmentationListener.Stage.values()) {
+                quote(json.append((stage.ordinal() == 0) ? "" : ","), stage.name().toLowerCase(Locale.ROOT));
+                appendHistogram(json.append(':'), metrics.stage(stage));
+            }
+            send(exchange, 200, json.append("}}").toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /* the body, read into buffers charged to admission before they are allocated: one of
+     * the declared Content-Length, or doubling ones up to maxBodyBytes when it is missing */
+    private byte[] readBody(final HttpExchange exchange, final Admission admission)
+            throws IOException, InterruptedException, Rejection {
+        long declared = -1;
+        final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                declared = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                /* read as if it were missing */
+            }
+        }
+        if (declared > maxBodyBytes) {
+            throw tooLarge();
+        }
+        final int capacity = (int) ((declared >= 0) ? declared : Math.min(8192, maxBodyBytes + 1L));
+        admission.charge(capacity);
+        byte[] body = new byte[capacity];
+        final InputStream in = exchange.getRequestBody();
+        int length = 0;
+        int read;
+        while (length < body.length && (read = in.read(body, length, body.length - length)) >= 0) {
+            length += read;
+            if (length == body.length && declared < 0) {
+                if (length > maxBodyBytes) {
+                    throw tooLarge();
+                }
+                final int grown = (int) Math.min(2L * length, maxBodyBytes + 1L);
+                admission.charge(grown);
+                body = Arrays.copyOf(body, grown);
+            }
+        }
+        return (length == body.length) ? body : Arrays.copyOf(body, length);
+    }
+
+    private Rejection tooLarge() {
+        return new Rejection(413, "TOO_LARGE", "the body exceeds " + maxBodyBytes + " bytes");
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String json) throws IOException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(final String reason, final String message) {
+        final StringBuilder json = new StringBuilder(64).append("{\"error\":");
+        quote(json, reason).append(",\"message\":");
+        return quote(json, String.valueOf(message)).append('}').toString();
+    }
+
+    /* count, mean and percentiles of a nanosecond histogram, in milliseconds */
+    private static void appendHistogram(final StringBuilder json, final LatencyHistogram histogram) {
+        json.append("{\"count\":").append(histogram.count());
+        appendNumber(json.append(",\"mean\":"), histogram.mean() / 1e6);
+        appendNumber(json.append(",\"p50\":"), histogram.percentile(0.50) / 1e6);
+        appendNumber(json.append(",\"p90\":"), histogram.percentile(0.90) / 1e6);
+        appendNumber(json.append(",\"p99\":"), histogram.percentile(0.99) / 1e6);
+        appendNumber(json.append(",\"max\":"), histogram.max() / 1e6);
+        json.append('}');
+    }
+
+    /* JSON has no NaN or infinities; they are written as null */
+    private static StringBuilder appendNumber(final StringBuilder json, final double value) {
+        return Double.isFinite(value) ? json.append(value) : json.append("null");
+    }
+
+    private static StringBuilder quote(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int x = 0; x < value.length(); x++) {
+            final char c = value.charAt(x);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    /* The budget one request holds, in permits of 1 KiB. The charge only ever belongs to
+     * one thread: the handler until a worker claims the request, then that worker, which
+     * releases it when the native work is over; a handler that returns first claims and
+     * releases it itself, so a request a worker never started is not left charged. */
+    private final class Admission {
+
+        private final long          deadline;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private int                 permits;
+        private long                bytes;
+        /* counted in inFlight */
+        private boolean             admitted;
+
+        Admission(final long deadline) {
+            this.deadline = deadline;
+        }
+
+        /* holds bytes of the budget in all, waiting until the deadline for what is not held yet */
+        void charge(final long bytes) throws InterruptedException, Rejection {
+            if (bytes > maxNativeBytes) {
+                throw new Rejection(413, "TOO_LARGE", "the request needs about " + (bytes >> 20)
+                        + " MB, more than the budget of " + (maxNativeBytes >> 20) + " MB");
+            }
+            final int needed = (int) Math.min(Integer.MAX_VALUE, (bytes + 1023) >> 10);
+            if (needed > permits) {
+                if (!nativeBudget.tryAcquire(needed - permits, Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS)) {
+                    throw new Rejection(503, "OVERLOADED", "no memory became free within "
+                            + queueTimeoutMillis + " ms");
+                }
+            } else if (needed < permits) {
+                nativeBudget.release(permits - needed);
+            }
+            nativeBytesInFlight.addAndGet(bytes - this.bytes);
+            this.permits = needed;
+            this.bytes   = bytes;
+        }
+
+        /* true for the first caller only, which must then release */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void release() {
+            if (admitted) {
+                inFlight.decrementAndGet();
+            }
+            nativeBytesInFlight.addAndGet(-bytes);
+            nativeBudget.release(permits);
+            permits = 0;
+            bytes   = 0;
+        }
+    }
+
+    /* a request answered before it is segmented */
+    private static final class Rejection extends Exception {
+
+        final int    status;
+        final String reason;
+
+        Rejection(final int status, final String reason, final String message) {
+            super(message, null, false, false);
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+    private static final class Segmentation {
+
+        final int           width;
+        final int           height;
+        final List<Contour> contours;
+        final int                   iterations;
+        final Segmenter.Termination termination;
+
+        Segmentation(final int width, final int height, final List<Contour> contours, final int iterations,
+                final Segmenter.Termination termination) {
+            this.width       = width;
+            this.height      = height;
+            this.contours    = contours;
+            this.iterations  = iterations;
+            this.termination = termination;
+        }
+
+        String toJson(final long nanos) {
+            int points = 0;
+            for (final Contour contour : contours) {
+                points += contour.size();
+            }
+            final StringBuilder json = new StringBuilder(256 + 24 * points);
+            json.append("{\"width\":").append(width).append(",\"height\":").append(height);
+            json.append(",\"iterations\":").append(iterations);
+            json.append(",\"converged\":").append(termination == Segmenter.Termination.CONVERGED);
+            quote(json.append(",\"termination\":"), termination.name());
+            appendNumber(json.append(",\"millis\":"), nanos / 1e6);
+            json.append(",\"contours\":[");
+            for (int c = 0; c < contours.size(); c++) {
+                final Contour contour = contours.get(c);
+                final Point centroid = contour.centroid();
+                final Rect bounds = contour.boundingRect();
+                appendNumber(json.append((c == 0) ? "{" : ",{").append("\"area\":"), contour.area());
+                appendNumber(json.append(",\"perimeter\":"), contour.perimeter());
+                appendNumber(json.append(",\"convexHullArea\":"), contour.convexHullArea());
+                appendNumber(json.append(",\"convexHullPerimeter\":"), contour.convexHullPerimeter());
+                appendNumber(json.append(",\"centroid\":["), centroid.x);
+                appendNumber(json.append(','), centroid.y).append(']');
+                json.append(",\"boundingBox\":[").append(bounds.x).append(',').append(bounds.y).append(',')
+                        .append(bounds.width).append(',').append(bounds.height).append(']');
+                json.append(",\"points\":[");
+                for (int p = 0; p < contour.size(); p++) {
+                    json.append((p == 0) ? "[" : ",[").append(contour.x(p)).append(',').append(contour.y(p)).append(']');
+                }
+                json.append("]}");
+            }
+            return json.append("]}").toString();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+        requests.shutdown();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        String host = "127.0.0.1";
+        int port = 8080;
+        int workers = Runtime.getRuntime().availableProcessors();
+        long maxNativeBytes = 1L << 30;
+        long queueTimeoutMillis = 5000;
+        SegmenterOptions options = SegmenterOptions.DEFAULT;
+        for (int x = 0; x < args.length; x++) {
+            if ("--host".equals(args[x])) {
+                host = args[++x];
+            } else if ("--port".equals(args[x])) {
+                port = Integer.parseInt(args[++x]);
+            } else if ("--workers".equals(args[x])) {
+                workers = Integer.parseInt(args[++x]);
+            } else if ("--max-native-mb".equals(args[x])) {
+                maxNativeBytes = Long.parseLong(args[++x]) << 20;
+            } else if ("--queue-ms".equals(args[x])) {
+                queueTimeoutMillis = Long.parseLong(args[++x]);
+            } else if ("--size".equals(args[x])) {
+                final int size = Integer.parseInt(args[++x]);
+                options = options.withMaxSize(size, size);
+            } else if ("--pyramid".equals(args[x])) {
+                options = options.withPyramid(Integer.parseInt(args[++x]));
+            } else if ("--reduced-decode".equals(args[x])) {
+                options = options.withReducedDecode(true);
+            } else if ("--max-iterations".equals(args[x])) {
+                options = options.withMaxIterations(Integer.parseInt(args[++x]));
+            } else if ("--deadline-ms".equals(args[x])) {
+                options = options.withDeadline(Long.parseLong(args[++x]), TimeUnit.MILLISECONDS);
+            } else if ("--tile".equals(args[x])) {
+                options = options.withTiles(Integer.parseInt(args[++x]));
+            } else {
+                System.err.println("usage: SegmentationServer [--host H] [--port N] [--workers N] [--max-native-mb N]"
+                        + " [--queue-ms N] [--size N] [--pyramid N] [--reduced-decode] [--max-iterations N]"
+                        + " [--deadline-ms N] [--tile N]");
+                System.exit(2);
+            }
+        }
+        nu.pattern.OpenCV.loadShared();
+        final SegmentationServer server = new SegmentationServer(new InetSocketAddress(host, port), workers,
+                maxNativeBytes, queueTimeoutMillis, options);
+        server.start();
+        System.out.println("SCIDOG listening on http://" + host + ":" + server.address().getPort()
+                + "/segment with " + workers + " workers"
+                + (server.virtualThreads() ? " and virtual threads" : ""));
+    }
+}
\ No newline at end of file
@@ -16,16 +16,20 @@
  */
 
 import java.util.ArrayList;
+import java.util.List;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 public class Segmenter {
     
     public static Scalar contrastMultiplier(final Mat mat) {
-        final double[][] channelValues = Imager.channelValues(mat);
-        final double[] median = Stats.medians(channelValues);
+        final double[] median = Stats.medians(mat);
         double[] m = new double[median.length];
         for (int x = 0; x < m.length; x++) {
                 double q = 255 / median[x];
@@ -37,79 +41,618 @@ public class Segmenter {
     /* Synthesis and Convergence of Intermediate Decaying Omnigradients */
     public static Contour SCIDOG(final Mat src) {
         try {
-            final double scaleFactor = Imager.scaleFactor(src.cols(), src.rows(), 512, 512);
-            final Mat multiplied = (scaleFactor < 1) ? Imager.scale(src, scaleFactor) : src.clone();
-            final Scalar multiplier = contrastMultiplier(multiplied);
-            Core.multiply(multiplied, multiplier, multiplied);
+            return segment(src);
+        } catch (SegmentationException e) {
+                e.printStackTrace();
+                return null;
+        }
+    }
 
-            final double deltaAverageThreshold = 0.995;
-            double previousAverage;
-            double currentAverage = -1;
-            int iteration = 1;
+    /* headless SCIDOG that reports failures as typed exceptions instead of null */
+    public static Contour segment(final Mat src) throws SegmentationException {
+        return segment(src, SegmenterOptions.DEFAULT);
+    }
 
-            final ArrayList<Mat> merges = new ArrayList<>();
+    public static Contour segment(final Mat src, final SegmentationListener listener) throws SegmentationException {
+        return segment(src, SegmenterOptions.DEFAULT.withListener(listener));
+    }
 
-            final Mat mat = new Mat();
-            final Mat gray = new Mat();
+    public static Contour segment(final Mat src, final SegmenterOptions options) throws SegmentationException {
+        return segmentAll(src, options).get(0);
+    }
 
-            do {
-                Imgproc.medianBlur(multiplied, mat, 2 * iteration + 1);
-                Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
+    /* every lesion options.regions keeps, largest first; never empty */
+    public static List<Contour> segmentAll(final Mat src, final SegmenterOptions options) throws SegmentationException {
+        return segmentResult(src, options).contours;
+    }
 
-                final Mat[] mergeMats = new Mat[15];
-                mergeMats[0] = Imager.scharr(gray);
-                for (int x = 1; x < mergeMats.length; x++) {
-                        mergeMats[x] = Imager.sobel(gray, 1, x * 2 + 3);
-                }
+    /* segmentAll together with how the convergence loop ended, for callers that set a budget */
+    public static Result segmentResult(final Mat src, final SegmenterOptions options) throws SegmentationException {
+        return segmentResult(src, options, false);
+    }
 
-                final Mat omnigradient = Imager.mean(mergeMats);
+    /* segmentResult, also keeping the thresholded final merge as Result.mask when keepMask is set */
+    public static Result segmentResult(final Mat src, final SegmenterOptions options, final boolean keepMask)
+            throws SegmentationException {
+        final Run run = new Run();
+        run.keepMask = keepMask;
+        try {
+            final List<Contour> contours = run(src, options, run, null, System.nanoTime() + options.deadlineNanos);
+            return new Result(contours, run.iterations, run.termination, run.mask, run.scaleFactor);
+        } catch (SegmentationException e) {
+            if (run.mask != null) {
+                run.mask.release();
+            }
+            throw e;
+        }
+    }
+
+    /* a Session for the frames of one lesion with the default tolerances */
+    public static Session session(final SegmenterOptions options) {
+        return new Session(options, Session.REUSE_DIFFERENCE, Session.WARM_DIFFERENCE, Session.WARM_MARGIN);
+    }
 
-                for (final Mat merge : mergeMats){
-                        merge.release();
+    /* a cold run, or a warm one on the region of warm's previous contours with its multiplier
+     * and iteration count, due by the System.nanoTime deadline when options sets one; run
+     * records the state a Session keeps for the next frame */
+    private static List<Contour> run(final Mat src, final SegmenterOptions options, final Run run, final Session warm,
+            final long deadline) throws SegmentationException {
+        final SegmentationListener listener = options.listener;
+        if (src == null || src.empty()) {
+            listener.completed(0, 0, false);
+            throw new SegmentationException(SegmentationException.Reason.UNREADABLE_IMAGE, "image is empty");
+        }
+
+        final long start = System.nanoTime();
+        boolean succeeded = false;
+        run.timed = options.deadline();
+        run.deadline = deadline;
+        listener.started(src.rows(), src.cols());
+
+        try (MatPool.Scope scope = MatPool.open()) {
+            final double scaleFactor = Math.min(1, Imager.scaleFactor(src.cols(), src.rows(),
+                    options.maxWidth, options.maxHeight));
+            final double coarseFactor = Math.min(1, Imager.scaleFactor(src.cols(), src.rows(),
+                    options.pyramidBase, options.pyramidBase));
+            run.scaleFactor = scaleFactor;
+            final List<Contour> contours;
+            if (warm != null) {
+                run.multiplier = warm.multiplier;
+                contours = refine(src, scaleFactor, bounds(warm.levelContours), warm.warmMargin, options, scope, run,
+                        warm.iterations, warm.threshold);
+                if (contours.isEmpty()) {
+                    throw new SegmentationException(SegmentationException.Reason.NO_CONTOUR,
+                            "threshold of the warm started merge contains no region");
                 }
+            } else if (options.pyramid() && coarseFactor < scaleFactor) {
+                contours = pyramid(src, scaleFactor, coarseFactor, options, scope, run);
+            } else {
+                contours = single(src, scaleFactor, options, scope, run);
+            }
+            run.levelContours = contours;
+
+            final long stageStart = System.nanoTime();
+            final List<Contour> scaled = (scaleFactor < 1) ? scale(contours, 1 / scaleFactor) : contours;
+            endStage(listener, SegmentationListener.Stage.UPSCALE, stageStart);
+            listener.terminated(run.termination);
+            succeeded = true;
+            return scaled;
+
+        } catch (RuntimeException e) {
+            throw new SegmentationException(SegmentationException.Reason.PROCESSING_ERROR, e.getMessage(), e);
+        } finally {
+            listener.completed(run.iterations, System.nanoTime() - start, succeeded);
+        }
+    }
+
+    /* SCIDOG at one resolution; the contours are in the coordinates of the downscaled image */
+    private static List<Contour> single(final Mat src, final double scaleFactor, final SegmenterOptions options,
+            final MatPool.Scope scope, final Run run) throws SegmentationException {
+        final SegmentationListener listener = options.listener;
+        long stageStart = System.nanoTime();
+        final Mat multiplied = downscale(src, scaleFactor, scope);
+        listener.intermediate("multiplied", multiplied);
+        stageStart = endStage(listener, SegmentationListener.Stage.DOWNSCALE, stageStart);
+
+        run.multiplier = contrastMultiplier(multiplied);
+        Core.multiply(multiplied, run.multiplier, multiplied);
+        endStage(listener, SegmentationListener.Stage.CONTRAST, stageStart);
+
+        final Mat finalMerge = scope.acquire(multiplied.rows(), multiplied.cols(), CvType.CV_8U);
+        converge(multiplied, finalMerge, scope, options, run, 0);
+
+        stageStart = System.nanoTime();
+        run.threshold = Core.mean(finalMerge);
+        Core.inRange(finalMerge, run.threshold, new Scalar(255), finalMerge);
+        if (run.keepMask) {
+            run.keep(finalMerge.clone());
+        }
+        stageStart = endStage(listener, SegmentationListener.Stage.THRESHOLD, stageStart);
+
+        final List<Contour> contours = options.regions.contours(finalMerge, new Point());
+        if (contours.isEmpty()) {
+            throw new SegmentationException(SegmentationException.Reason.NO_CONTOUR,
+                    "threshold of the final merge contains no region");
+        }
+        endStage(listener, SegmentationListener.Stage.CONTOUR, stageStart);
+        return contours;
+    }
+
+    /* Coarse-to-fine SCIDOG: converge at coarseFactor, then rerun the convergence loop at
+     * scaleFactor on the bounding box of the coarse contours, widened by
+     * options.refinementMargin coarse pixels and the reach of the Sobel kernels. The
+     * kernels and blurs of SCIDOG have fixed pixel sizes, so the coarse contours themselves
+     * can stray far from the full size ones; they only bound the region that is refined. */
+    private static List<Contour> pyramid(final Mat src, final double scaleFactor, final double coarseFactor,
+            final SegmenterOptions options, final MatPool.Scope scope, final Run run)
+            throws SegmentationException {
+        final List<Contour> coarseContours = single(src, coarseFactor, options, scope, run);
+        final double ratio = scaleFactor / coarseFactor;
+        final List<Contour> levelContours = scale(coarseContours, ratio);
+        if (run.keepMask) {
+            /* the coarse threshold stands in for the level's until a refinement replaces it */
+            final Mat levelMask = new Mat();
+            Imgproc.resize(run.mask, levelMask, Imager.scaledSize(src, scaleFactor), 0, 0, Imgproc.INTER_NEAREST);
+            run.keep(levelMask);
+        }
+        if (run.termination == Termination.DEADLINE || run.expired(System.nanoTime())) {
+            /* no time left to refine; the coarse contours are the best answer there is */
+            run.terminate(Termination.DEADLINE);
+            return levelContours;
+        }
+        final List<Contour> refined = refine(src, scaleFactor, bounds(levelContours),
+                (int) Math.ceil(options.refinementMargin * ratio), options, scope, run, 0, null);
+        return refined.isEmpty() ? levelContours : refined;
+    }
+
+    /* Reruns the convergence loop at scaleFactor on bounds widened by margin and the reach
+     * of the Sobel kernels, with the multiplier already in run, for fixedIterations
+     * iterations or until convergence when that is 0. The merge is thresholded at
+     * threshold, or at its own mean when that is null. The contours may be empty. */
+    private static List<Contour> refine(final Mat src, final double scaleFactor, final Rect bounds, final int margin,
+            final SegmenterOptions options, final MatPool.Scope scope, final Run run, final int fixedIterations,
+            final Scalar threshold) {
+        final SegmentationListener listener = options.listener;
+        long stageStart = System.nanoTime();
+        final Size size = Imager.scaledSize(src, scaleFactor);
+        final Rect roi = expand(bounds, margin + Imager.SOBEL_HALO, (int) size.width, (int) size.height);
+
+        /* resample only the region of interest, matching the pixel centers resize would use */
+        final Mat roiImage = scope.acquire(roi.height, roi.width, src.type());
+        final Mat transform = new Mat(2, 3, CvType.CV_64F);
+        transform.put(0, 0, scaleFactor, 0, 0.5 * scaleFactor - 0.5 - roi.x,
+                            0, scaleFactor, 0.5 * scaleFactor - 0.5 - roi.y);
+        Imgproc.warpAffine(src, roiImage, transform, roi.size(), Imgproc.INTER_LINEAR, Core.BORDER_REPLICATE);
+        transform.release();
+        Core.multiply(roiImage, run.multiplier, roiImage);
+        listener.intermediate("refinement", roiImage);
+        endStage(listener, SegmentationListener.Stage.DOWNSCALE, stageStart);
+
+        final Mat roiMerge = scope.acquire(roi.height, roi.width, CvType.CV_8U);
+        converge(roiImage, roiMerge, scope, options, run, fixedIterations);
+
+        stageStart = System.nanoTime();
+        run.threshold = (threshold != null) ? threshold : Core.mean(roiMerge);
+        Core.inRange(roiMerge, run.threshold, new Scalar(255), roiMerge);
+        stageStart = endStage(listener, SegmentationListener.Stage.THRESHOLD, stageStart);
+
+        final List<Contour> refined = options.regions.contours(roiMerge, new Point(roi.x, roi.y));
+        if (run.keepMask && !refined.isEmpty()) {
+            final Mat levelMask = Mat.zeros(size, CvType.CV_8U);
+            final Mat levelRoi = levelMask.submat(roi);
+            roiMerge.copyTo(levelRoi);
+            levelRoi.release();
+            run.keep(levelMask);
+        }
+        endStage(listener, SegmentationListener.Stage.CONTOUR, stageStart);
+        return refined;
+    }
+
+    private static Rect bounds(final List<Contour> contours) {
+        Rect bounds = contours.get(0).boundingRect();
+        for (final Contour contour : contours) {
+            bounds = union(bounds, contour.boundingRect());
+        }
+        return bounds;
+    }
 
+    private static Mat downscale(final Mat src, final double factor, final MatPool.Scope scope) {
+        if (factor < 1) {
+            final Size scaledSize = Imager.scaledSize(src, factor);
+            return Imager.scale(src, factor, scope.acquire((int) scaledSize.height, (int) scaledSize.width, src.type()));
+        }
+        final Mat copy = scope.acquire(src);
+        src.copyTo(copy);
+        return copy;
+    }
+
+    private static List<Contour> scale(final List<Contour> contours, final double factor) {
+        final List<Contour> scaled = new ArrayList<>(contours.size());
+        contours.forEach(contour -> scaled.add(contour.scale(factor)));
+        return scaled;
+    }
+
+    private static Rect union(final Rect a, final Rect b) {
+        final int x = Math.min(a.x, b.x);
+        final int y = Math.min(a.y, b.y);
+        return new Rect(x, y, Math.max(a.x + a.width, b.x + b.width) - x, Math.max(a.y + a.height, b.y + b.height) - y);
+    }
+
+    private static Rect expand(final Rect rect, final int margin, final int width, final int height) {
+        final int x = Math.max(0, rect.x - margin);
+        final int y = Math.max(0, rect.y - margin);
+        return new Rect(x, y, Math.min(width, rect.x + rect.width + margin) - x,
+                Math.min(height, rect.y + rect.height + margin) - y);
+    }
+
+    /* Runs the omnigradient loop until the average converges, or for fixedIterations
+     * iterations when that is positive, and writes the blurred mean of all iterations into
+     * finalMerge. The loop also stops at options.maxIterations, and before an iteration
+     * that would end past run's deadline if it took as long as the one before; the median
+     * kernel only grows, so the next iteration is rarely faster. At least one iteration
+     * always runs, so there is a merge to threshold. Adds the iterations and how the loop
+     * ended to run. Images larger than options.tileSize run on TiledConvergence, which
+     * reports no intermediates. */
+    private static void converge(final Mat multiplied, final Mat finalMerge, final MatPool.Scope scope,
+            final SegmenterOptions options, final Run run, final int fixedIterations) {
+        final SegmentationListener listener = options.listener;
+        final long start = System.nanoTime();
+        final RunningMean merges = new RunningMean();
+
+        final int maxIterations = (options.maxIterations > 0) ? options.maxIterations : Integer.MAX_VALUE;
+        Termination termination = Termination.CONVERGED;
+        double previousAverage;
+        double currentAverage = -1;
+        int iteration = 1;
+
+        final TiledConvergence tiles = options.tiled(multiplied.cols(), multiplied.rows())
+                ? new TiledConvergence(multiplied, options.tileSize, options.kernelSizes) : null;
+        final Mat mat = (tiles == null) ? scope.acquire(multiplied) : null;
+        final Mat gray = (tiles == null) ? scope.acquire(multiplied.rows(), multiplied.cols(), CvType.CV_8U) : null;
+        final Mat omnigradient = (tiles == null) ? scope.acquire(gray) : null;
+        if (tiles == null) {
+            listener.intermediate("gray", gray);
+        }
+
+        try {
+            while (true) {
+                final long iterationStart = System.nanoTime();
                 previousAverage = currentAverage;
-                currentAverage = Core.mean(omnigradient).val[0];
-
-                Imgproc.medianBlur(omnigradient, omnigradient, 2 * iteration + 1);
-                merges.add(omnigradient);
-                
-                /* ****************************************
-                
-                to not display omnigradient sequences,
-                remove the streamer lines below
-                
-                **************************************** */
-                
-                Streamer streamer = new Streamer();
-                streamer.initializeFrame(0, 0, src.cols(), src.rows());
-                streamer.setImage(omnigradient);
-                streamer.setTitle(String.valueOf(iteration));
+                if (tiles != null) {
+                    currentAverage = tiles.iterate(iteration);
+                } else {
+                    Imgproc.medianBlur(multiplied, mat, 2 * iteration + 1);
+                    Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
 
+                    Omnigradient.compute(gray, omnigradient, options.kernelSizes);
+                    currentAverage = Core.mean(omnigradient).val[0];
+
+                    Imgproc.medianBlur(omnigradient, omnigradient, 2 * iteration + 1);
+                    merges.add(omnigradient);
+                    listener.intermediate("omnigradient", omnigradient);
+                }
+
+                final long iterationEnd = System.nanoTime();
+                listener.iteration(iteration, currentAverage,
+                        (previousAverage < 0) ? Double.NaN : currentAverage / previousAverage,
+                        iterationEnd - iterationStart);
                 iteration++;
 
-            } while (currentAverage / previousAverage < deltaAverageThreshold);
+                if ((fixedIterations > 0) ? iteration > fixedIterations
+                        : currentAverage / previousAverage >= options.convergenceThreshold) {
+                    break;
+                }
+                if (iteration > maxIterations) {
+                    termination = Termination.ITERATION_LIMIT;
+                    break;
+                }
+                if (run.expired(2 * iterationEnd - iterationStart)) {
+                    termination = Termination.DEADLINE;
+                    break;
+                }
+            }
+            final long blurStart = endStage(listener, SegmentationListener.Stage.CONVERGENCE, start);
 
-            final Mat finalMerge = Imager.mean(merges.toArray(new Mat[0]));
-            Imgproc.medianBlur(finalMerge, finalMerge, (2 * iteration + 1));
+            if (tiles != null) {
+                tiles.merge(finalMerge, 2 * iteration + 1);
+            } else {
+                merges.mean(finalMerge);
+                Imgproc.medianBlur(finalMerge, finalMerge, (2 * iteration + 1));
+            }
+            endStage(listener, SegmentationListener.Stage.FINAL_BLUR, blurStart);
+            run.add(iteration - 1);
+            run.terminate(termination);
+        } finally {
+            merges.release();
+            if (tiles != null) {
+                tiles.release();
+            } else {
+                scope.release(mat);
+                scope.release(gray);
+                scope.release(omnigradient);
+            }
+        }
+    }
 
-            Core.inRange(finalMerge, Core.mean(finalMerge), new Scalar(255), finalMerge);
+    private static long endStage(final SegmentationListener listener, final SegmentationListener.Stage stage,
+            final long stageStart) {
+        final long now = System.nanoTime();
+        listener.stage(stage, now - stageStart);
+        return now;
+    }
 
-            final Contour contour = Imager.findLargestContour(finalMerge);
+    /* how the convergence loop of a run ended; a run that stopped early at any level
+     * still returns the contours of the iterations it merged, flagged as not converged */
+    public enum Termination {
+        /* the average converged, or a warm Session frame ran its fixed iterations */
+        CONVERGED,
+        /* SegmenterOptions.maxIterations was reached */
+        ITERATION_LIMIT,
+        /* another iteration would have overrun SegmenterOptions.deadlineNanos */
+        DEADLINE
+    }
 
-            multiplied.release();
-            mat.release();
-            gray.release();
-            merges.forEach((merge) -> {
-                    merge.release();
-            });
-            finalMerge.release();
+    public static final class Result {
 
-            return (scaleFactor < 1) ? contour.scale(1 / scaleFactor) : contour;
+        /* every lesion options.regions keeps, largest first; never empty */
+        public final List<Contour> contours;
+        /* all iterations, over every level */
+        public final int           iterations;
+        public final Termination   termination;
+        /* the CV_8U threshold of the final merge the contours were found in, 255 inside, holes
+         * and regions options.regions dropped included; null unless segmentResult was asked
+         * to keep it. It has the size the image was segmented at, scaleFactor times the
+         * source's, and is the caller's to release. */
+        public final Mat           mask;
+        public final double        scaleFactor;
 
-        } catch (Exception e) {
-                e.printStackTrace();
-                return null;
+        private Result(final List<Contour> contours, final int iterations, final Termination termination,
+                final Mat mask, final double scaleFactor) {
+            this.contours    = contours;
+            this.iterations  = iterations;
+            this.termination = termination;
+            this.mask        = mask;
+            this.scaleFactor = scaleFactor;
+        }
+
+        public Contour contour() {
+            return contours.get(0);
+        }
+
+        public boolean converged() {
+            return termination == Termination.CONVERGED;
+        }
+    }
+
+    /* what one run leaves behind for the next frame of a Session */
+    private static final class Run {
+
+        /* all iterations, over every level */
+        int           iterations;
+        /* iterations of the last, full size level */
+        int           levelIterations;
+        Scalar        multiplier;
+        Scalar        threshold;
+        /* the contours at the target size, before upscaling */
+        List<Contour> levelContours;
+        boolean       timed;
+        /* the System.nanoTime the run should be done by when timed */
+        long          deadline;
+        Termination   termination = Termination.CONVERGED;
+        /* the downscaling of the full size level */
+        double        scaleFactor;
+        boolean       keepMask;
+        /* the latest level threshold when keepMask is set */
+        Mat           mask;
+
+        void add(final int levelIterations) {
+            this.iterations += levelIterations;
+            this.levelIterations = levelIterations;
+        }
+
+        /* keeps the most severe way any level of the run stopped */
+        void terminate(final Termination termination) {
+            if (termination.compareTo(this.termination) > 0) {
+                this.termination = termination;
+            }
+        }
+
+        void keep(final Mat mask) {
+            if (this.mask != null) {
+                this.mask.release();
+            }
+            this.mask = mask;
+        }
+
+        boolean expired(final long nanoTime) {
+            return timed && nanoTime - deadline > 0;
+        }
+    }
+
+    /* Segments consecutive frames of one lesion, e.g. follow-up captures or a dermatoscope
+     * clip. Each frame is compared with the last segmented one on a small gray thumbnail of
+     * the lesion's surroundings, the bounding box of the previous contours doubled in size,
+     * so that a small lesion moving over plain skin still registers:
+     *
+     *     mean absolute difference <= maxReuseDifference    REUSED: the previous contours
+     *     mean absolute difference <= maxWarmDifference     WARM
+     *     otherwise, or a different frame size               COLD: a full run
+     *
+     * A warm frame reuses the previous contrast multiplier and threshold and runs exactly
+     * the previous number of iterations on the bounding box of the previous contours,
+     * widened by warmMargin target pixels, so its cost shrinks with the share of the frame
+     * the lesion covers and consecutive frames do not flicker between iteration counts. When the
+     * warm result has no region or its area is off by more than a factor of two, the frame
+     * falls back to a cold run within what is left of the frame's deadline; an inconsistent
+     * warm result that comes back past the deadline is kept instead, with lastTermination
+     * DEADLINE. Not thread-safe; give each sequence its own Session. */
+    public static final class Session {
+
+        public enum Start {
+            COLD, WARM, REUSED
+        }
+
+        /* gray levels of mean absolute thumbnail difference */
+        public static final double REUSE_DIFFERENCE = 0.5;
+        public static final double WARM_DIFFERENCE  = 8;
+        /* target pixels around the previous contours */
+        public static final int    WARM_MARGIN      = 40;
+        /* pixels on the long side of the thumbnails frames are compared on */
+        public static final int    THUMBNAIL_SIZE   = 64;
+
+        public final SegmenterOptions options;
+        public final double           maxReuseDifference;
+        public final double           maxWarmDifference;
+        public final int              warmMargin;
+
+        private Mat           thumbnail;
+        private Rect          reference;
+        private Size          frameSize;
+        private Scalar        multiplier;
+        private Scalar        threshold;
+        private int           iterations;
+        private List<Contour> levelContours;
+        private List<Contour> contours;
+        private Start         lastStart;
+        private Termination   termination;
+        private double        lastDifference = Double.NaN;
+
+        public Session(final SegmenterOptions options, final double maxReuseDifference,
+                final double maxWarmDifference, final int warmMargin) {
+            if (maxReuseDifference < 0 || maxWarmDifference < 0 || warmMargin < 0) {
+                throw new IllegalArgumentException("session tolerances must not be negative");
+            }
+            this.options            = options;
+            this.maxReuseDifference = maxReuseDifference;
+            this.maxWarmDifference  = maxWarmDifference;
+            this.warmMargin         = warmMargin;
+        }
+
+        public Contour segment(final Mat frame) throws SegmentationException {
+            return segmentAll(frame).get(0);
+        }
+
+        public List<Contour> segmentAll(final Mat frame) throws SegmentationException {
+            if (frame == null || frame.empty()) {
+                return Segmenter.segmentAll(frame, options);
+            }
+            if (thumbnail != null && frame.size().equals(frameSize)) {
+                final Mat current = thumbnail(frame, reference);
+                lastDifference = difference(current, thumbnail);
+                current.release();
+            } else {
+                lastDifference = Double.POSITIVE_INFINITY;
+            }
+
+            if (lastDifference <= maxReuseDifference) {
+                /* the reference stays the last segmented frame, so slow drift still adds up */
+                options.listener.started(frame.rows(), frame.cols());
+                options.listener.terminated(termination);
+                options.listener.completed(0, 0, true);
+                lastStart = Start.REUSED;
+                return contours;
+            }
+            /* a cold fallback shares the warm attempt's deadline, so a frame never gets two budgets */
+            final long deadline = System.nanoTime() + options.deadlineNanos;
+            if (lastDifference <= maxWarmDifference) {
+                final Run run = new Run();
+                try {
+                    final List<Contour> warm = run(frame, options, run, this, deadline);
+                    if (consistent(run.levelContours)) {
+                        remember(run, frame, warm, Start.WARM);
+                        return warm;
+                    }
+                    if (run.expired(System.nanoTime())) {
+                        /* no time left to start over; the warm contours are the best answer there is */
+                        run.terminate(Termination.DEADLINE);
+                        remember(run, frame, warm, Start.WARM);
+                        return warm;
+                    }
+                } catch (SegmentationException e) {
+                    if (e.reason != SegmentationException.Reason.NO_CONTOUR) {
+                        throw e;
+                    }
+                }
+            }
+            final Run run = new Run();
+            final List<Contour> cold = run(frame, options, run, null, deadline);
+            remember(run, frame, cold, Start.COLD);
+            return cold;
+        }
+
+        /* how the last frame was segmented, or null before the first frame */
+        public Start lastStart() {
+            return lastStart;
+        }
+
+        /* how the convergence loop of the frame the last contours came from ended, or null before the first frame */
+        public Termination lastTermination() {
+            return termination;
+        }
+
+        /* the thumbnail difference of the last frame from the reference, infinite after a reset */
+        public double lastDifference() {
+            return lastDifference;
+        }
+
+        /* forgets every earlier frame, so the next one runs cold */
+        public void reset() {
+            if (thumbnail != null) {
+                thumbnail.release();
+            }
+            thumbnail = null;
+            reference = null;
+            frameSize = null;
+            multiplier = null;
+            threshold = null;
+            levelContours = null;
+            contours = null;
+            lastStart = null;
+            termination = null;
+            lastDifference = Double.NaN;
+        }
+
+        private boolean consistent(final List<Contour> warmLevelContours) {
+            final double ratio = warmLevelContours.get(0).area() / levelContours.get(0).area();
+            return ratio >= 0.5 && ratio <= 2;
+        }
+
+        private void remember(final Run run, final Mat frame, final List<Contour> contours, final Start start) {
+            if (thumbnail != null) {
+                thumbnail.release();
+            }
+            final Rect lesion = bounds(contours);
+            this.reference     = expand(lesion, Math.max(lesion.width, lesion.height) / 2, frame.cols(), frame.rows());
+            this.thumbnail     = thumbnail(frame, reference);
+            this.frameSize     = frame.size();
+            this.multiplier    = run.multiplier;
+            this.threshold     = run.threshold;
+            this.iterations    = run.levelIterations;
+            this.levelContours = run.levelContours;
+            this.contours      = contours;
+            this.termination   = run.termination;
+            this.lastStart     = start;
+        }
+
+        private static Mat thumbnail(final Mat frame, final Rect region) {
+            final Mat crop = frame.submat(region);
+            final double factor = Math.min(1, Imager.scaleFactor(crop.cols(), crop.rows(),
+                    THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+            final Mat small = new Mat();
+            Imgproc.resize(crop, small, Imager.scaledSize(crop, factor), 0, 0, Imgproc.INTER_AREA);
+            crop.release();
+            if (small.channels() == 3) {
+                Imgproc.cvtColor(small, small, Imgproc.COLOR_BGR2GRAY);
+            }
+            return small;
+        }
+
+        private static double difference(final Mat a, final Mat b) {
+            final Mat difference = new Mat();
+            Core.absdiff(a, b, difference);
+            final double mean = Core.mean(difference).val[0];
+            difference.release();
+            return mean;
         }
     }
 }
\ No newline at end of file
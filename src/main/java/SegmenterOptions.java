@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.opencv.imgproc.Imgproc;
+
+/* Immutable SCIDOG settings; start from DEFAULT and derive variants with the with* methods. */
+public class SegmenterOptions {
+
+    public static final SegmenterOptions DEFAULT = new SegmenterOptions(512, 512, 0, 10,
+            RegionExtractor.LARGEST, false, 0, 0, 0.995, 0, Omnigradient.KERNEL_SIZES,
+            JfrSegmentationListener.INSTANCE);
+
+    /* the source is downscaled to fit within maxWidth x maxHeight before segmenting */
+    public final int    maxWidth;
+    public final int    maxHeight;
+    /* the size the convergence loop first runs at in pyramid mode, or 0 to disable the pyramid */
+    public final int    pyramidBase;
+    /* how far the refined region extends beyond the coarse contour's bounding box, in coarse pixels */
+    public final double refinementMargin;
+    /* which regions of the final threshold become lesions; segment returns the first */
+    public final RegionExtractor      regions;
+    /* decode files at 1/2, 1/4 or 1/8 resolution when that still covers the target size, see Imager.read */
+    public final boolean              reducedDecode;
+    /* the convergence loop stops after maxIterations iterations per level, or 0 for no limit */
+    public final int                  maxIterations;
+    /* wall-clock budget of one segmentation from its start, or 0 for none; see Segmenter.Termination */
+    public final long                 deadlineNanos;
+    /* the loop runs while currentAverage / previousAverage stays below this */
+    public final double               convergenceThreshold;
+    /* the convergence loop runs on tiles of this size when the image is larger, or 0 to never tile */
+    public final int                  tileSize;
+    /* the omnigradient kernel bank, Omnigradient.KERNEL_SIZES by default; see kernelSizes() */
+    final int[]                       kernelSizes;
+    public final SegmentationListener listener;
+
+    private SegmenterOptions(final int maxWidth, final int maxHeight, final int pyramidBase,
+            final double refinementMargin, final RegionExtractor regions, final boolean reducedDecode,
+            final int maxIterations, final long deadlineNanos, final double convergenceThreshold, final int tileSize,
+            final int[] kernelSizes, final SegmentationListener listener) {
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IllegalArgumentException("the target size must be positive");
+        }
+        if (pyramidBase < 0 || refinementMargin <= 0) {
+            throw new IllegalArgumentException("invalid pyramid settings " + pyramidBase + ", " + refinementMargin);
+        }
+        if (maxIterations < 0 || deadlineNanos < 0) {
+            throw new IllegalArgumentException("invalid budget " + maxIterations + " iterations, " + deadlineNanos + " ns");
+        }
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("invalid tile size " + tileSize);
+        }
+        if (kernelSizes.length == 0) {
+            throw new IllegalArgumentException("the kernel bank is empty");
+        }
+        for (final int kernelSize : kernelSizes) {
+            if (kernelSize != Imgproc.CV_SCHARR && (kernelSize < 1 || kernelSize > 2 * Imager.SOBEL_HALO + 1
+                    || kernelSize % 2 == 0)) {
+                throw new IllegalArgumentException("invalid kernel size " + kernelSize);
+            }
+        }
+        if (!(convergenceThreshold > 0 && convergenceThreshold <= 1)) {
+            throw new IllegalArgumentException("the convergence threshold must be within (0, 1]");
+        }
+        this.maxWidth             = maxWidth;
+        this.maxHeight            = maxHeight;
+        this.pyramidBase          = pyramidBase;
+        this.refinementMargin     = refinementMargin;
+        this.regions              = regions;
+        this.reducedDecode        = reducedDecode;
+        this.maxIterations        = maxIterations;
+        this.deadlineNanos        = deadlineNanos;
+        this.convergenceThreshold = convergenceThreshold;
+        this.tileSize             = tileSize;
+        this.kernelSizes          = kernelSizes;
+        this.listener             = listener;
+    }
+
+    public SegmenterOptions withMaxSize(final int maxWidth, final int maxHeight) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* coarse-to-fine mode: converge at pyramidBase, then rerun it at full size around the coarse contour only */
+    public SegmenterOptions withPyramid(final int pyramidBase) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    public SegmenterOptions withRefinementMargin(final double refinementMargin) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* e.g. RegionExtractor.ALL.withMinArea(100) for multi-lesion output through Segmenter.segmentAll */
+    public SegmenterOptions withRegions(final RegionExtractor regions) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    public SegmenterOptions withReducedDecode(final boolean reducedDecode) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    public SegmenterOptions withMaxIterations(final int maxIterations) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* e.g. withDeadline(100, TimeUnit.MILLISECONDS) for the interactive path; 0 removes the deadline */
+    public SegmenterOptions withDeadline(final long deadline, final TimeUnit unit) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, unit.toNanos(deadline), convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    public SegmenterOptions withConvergenceThreshold(final double convergenceThreshold) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* full resolution mode, e.g. withMaxSize(8192, 8192).withTiles(512); see TiledConvergence */
+    public SegmenterOptions withTiles(final int tileSize) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* e.g. withKernelSizes(Omnigradient.kernelSizes(3, 15, false)); Imgproc.CV_SCHARR denotes the Scharr operator */
+    public SegmenterOptions withKernelSizes(final int... kernelSizes) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes.clone(), listener);
+    }
+
+    public SegmenterOptions withListener(final SegmentationListener listener) {
+        return new SegmenterOptions(maxWidth, maxHeight, pyramidBase, refinementMargin, regions, reducedDecode,
+                maxIterations, deadlineNanos, convergenceThreshold, tileSize, kernelSizes, listener);
+    }
+
+    /* every setting that affects the contours, e.g. for cache keys; the listener and the tile
+     * size do not, and the deadline is left out because where it cuts a run depends on the
+     * machine's load */
+    public String parameters() {
+        return "maxSize=" + maxWidth + "x" + maxHeight + ";pyramidBase=" + pyramidBase
+                + ";refinementMargin=" + refinementMargin + ";regions=" + regions + ";reducedDecode=" + reducedDecode
+                + ";maxIterations=" + maxIterations + ";convergenceThreshold=" + convergenceThreshold
+                + ";kernelSizes=" + Arrays.toString(kernelSizes);
+    }
+
+    public int[] kernelSizes() {
+        return kernelSizes.clone();
+    }
+
+    /* whether the convergence loop on a width x height image runs on tiles */
+    public boolean tiled(final int width, final int height) {
+        return tileSize > 0 && (width > tileSize || height > tileSize);
+    }
+
+    public boolean deadline() {
+        return deadlineNanos > 0;
+    }
+
+    public boolean pyramid() {
+        return pyramidBase > 0;
+    }
+}
\ No newline at end of file
@@ -17,7 +17,10 @@
 
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
 
 public class Stats {
     
@@ -35,6 +38,39 @@ public class Stats {
         return transpose(percentiles(data, 50))[0];
     }
     
+    /* per-channel medians of a Mat, counted in 256-bin histograms when the Mat is 8-bit */
+    public static double[] medians(final Mat mat){
+        return transpose(percentiles(mat, 0.5))[0];
+    }
+    
+    public static double[][] percentiles(final Mat mat, final double... percentiles){
+        if (mat.depth() != CvType.CV_8U){
+            return percentiles(Imager.channelValues(mat), percentiles);
+        }
+        return Stream.of(histograms(mat)).map(histogram ->
+                percentilesFromHistogram(histogram, 0, 1, percentiles)).toArray(double[][]::new);
+    }
+    
+    /* one 256-bin histogram per channel of an 8-bit Mat */
+    public static long[][] histograms(final Mat mat){
+        if (mat.depth() != CvType.CV_8U){
+            throw new IllegalArgumentException("expected an 8-bit Mat but got " + CvType.typeToString(mat.type()));
+        }
+        return histograms(Imager.interleavedBytes(mat, null), mat.channels());
+    }
+    
+    /* one 256-bin histogram per channel of interleaved unsigned 8-bit data */
+    public static long[][] histograms(final byte[] interleaved, final int channels){
+        final long[][] histograms = new long[channels][256];
+        for (int c = 0; c < channels; c++){
+            final long[] histogram = histograms[c];
+            for (int x = c; x < interleaved.length; x += channels){
+                histogram[interleaved[x] & 0xFF]++;
+            }
+        }
+        return histograms;
+    }
+    
     public static double[][] percentiles(final double[][] data, final int... percentiles){
         return percentiles(data, IntStream.of(percentiles).mapToDouble(i -> i / 100d).toArray());
     }
@@ -44,6 +80,48 @@ public class Stats {
                 .parallel().sorted().toArray(), percentiles)).toArray(double[][]::new);
     }
     
+    /* Percentiles of values counted in equal-width bins, where bin b holds the value
+     * offset + b * binWidth. Interpolation is identical to percentilesFromSorted, so
+     * integer data counted with a bin width of 1 gives exactly the sorted result. */
+    public static double[] percentilesFromHistogram(final long[] histogram, final double offset,
+            final double binWidth, final double... percentages){
+        final long count = LongStream.of(histogram).sum();
+        final double[] percentiles = new double[percentages.length];
+        for (int x = 0; x < percentages.length; x++){
+            final double p = percentages[x];
+            if (p < 0 || p > 1 || count == 0){
+                percentiles[x] = Double.NaN;
+            } else if (p == 0){
+                percentiles[x] = offset + binWidth * binOfRank(histogram, 0);
+            } else{
+                final double index = count * p - 1;
+                final long   intIndex = (long) index;
+                final double decIndex = index - intIndex;
+                final double tolerance = 1e-5;
+                final double lower = offset + binWidth * binOfRank(histogram, intIndex);
+                if (decIndex < tolerance){
+                    percentiles[x] = lower;
+                } else{
+                    final double upper = offset + binWidth * binOfRank(histogram, intIndex + 1);
+                    percentiles[x] = lower * (1 - decIndex) + upper * decIndex;
+                }
+            }
+        }
+        return percentiles;
+    }
+    
+    /* the bin holding the value at the given zero-based rank of the sorted data */
+    private static int binOfRank(final long[] histogram, final long rank){
+        long cumulative = 0;
+        for (int b = 0; b < histogram.length; b++){
+            cumulative += histogram[b];
+            if (cumulative > rank){
+                return b;
+            }
+        }
+        return histogram.length - 1;
+    }
+    
     private static double[] percentilesFromSorted(final double[] sorted, final double... percentages){
         return DoubleStream.of(percentages).parallel().map(p -> {
             if (p < 0 || p > 1){
@@ -17,12 +17,30 @@
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import org.opencv.core.Mat;
 
+/* Displays Mats in a window. publish hands frames from compute threads to the event
+ * dispatch thread without ever waiting on Swing: the Mat is copied into a recycled
+ * BufferedImage on the calling thread and left in a single slot, where a newer frame
+ * replaces one the display has not picked up yet. At most one repaint is queued at a
+ * time and it shows whatever frame is latest when it runs, so a fast segmentation loop
+ * drops frames instead of flooding the event queue.
+ *
+ *     final Streamer streamer = new Streamer();
+ *     streamer.initializeFrame(0, 0, 512, 512);
+ *     Segmenter.segment(mat, options.withListener(streamer.listener("omnigradient")));
+ *
+ * The images cycle through three buffers: the one being painted, the one waiting in
+ * the slot and a spare the next publish fills, so they are only reallocated when the
+ * size or channels of the frames change. */
 public class Streamer extends JFrame {
     
     public static void show(final Mat mat){
@@ -33,31 +51,110 @@ public class Streamer extends JFrame {
         final Streamer streamer = new Streamer();
         streamer.initializeFrame(0, 0, bufferedImage.getWidth(), bufferedImage.getHeight());
         streamer.setImage(bufferedImage);
-        streamer.setVisible(true);
     }
 
     private final ImagePanel imagePanel = new ImagePanel();
 
+    /* the latest published frame not yet shown */
+    private final AtomicReference<BufferedImage> latest = new AtomicReference<>();
+    /* a shown frame handed back for the next publish to fill */
+    private final AtomicReference<BufferedImage> spare = new AtomicReference<>();
+    private final AtomicBoolean repaintQueued = new AtomicBoolean();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /* whether the shown image is one of the recycled buffers; only touched on the event dispatch thread */
+    private boolean recycled;
+
     public Streamer() {
         super();
     }
     
     public void setImage(final Mat mat){
-        setImage(Imager.matToBufferedImage(mat));
+        publish(mat);
     }
     
+    /* shows an image the caller keeps owning; it is never recycled as a buffer */
     public void setImage(final BufferedImage bufferedImage){
-        this.imagePanel.setImage(bufferedImage);
-        this.getContentPane().setPreferredSize(new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight()));
-        this.pack();
+        onEventDispatchThread(() -> display(bufferedImage, false));
+    }
+
+    /* copies the Mat and returns without waiting for it to be painted; 8-bit Mats with 1 or 3 channels */
+    public void publish(final Mat mat) {
+        final BufferedImage frame = Imager.matToBufferedImage(mat, spare.getAndSet(null));
+        published.incrementAndGet();
+        final BufferedImage replaced = latest.getAndSet(frame);
+        if (replaced != null) {
+            dropped.incrementAndGet();
+            spare.compareAndSet(null, replaced);
+        }
+        if (repaintQueued.compareAndSet(false, true)) {
+            EventQueue.invokeLater(this::showLatest);
+        }
+    }
+
+    /* frames passed to publish */
+    public long published() {
+        return published.get();
+    }
+
+    /* frames replaced by a newer one before they were shown */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /* publishes the intermediate Mats of the given name, e.g. "omnigradient" for every convergence iteration */
+    public SegmentationListener listener(final String name) {
+        return new SegmentationListener() {
+            @Override
+            public void intermediate(final String intermediate, final Mat mat) {
+                if (name.equals(intermediate)) {
+                    publish(mat);
+                }
+            }
+        };
     }
     
     public void initializeFrame(final int x, final int y, final int width, final int height) {
-        this.getContentPane().add(imagePanel);
-        this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        this.setSize(width, height);
-        this.setLocation(x, y);
-        this.setVisible(true);
+        onEventDispatchThread(() -> {
+            this.getContentPane().add(imagePanel);
+            this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            this.setSize(width, height);
+            this.setLocation(x, y);
+            this.setVisible(true);
+        });
+    }
+
+    private void showLatest() {
+        /* cleared before taking the frame so that a publish racing with this one queues another repaint */
+        repaintQueued.set(false);
+        final BufferedImage frame = latest.getAndSet(null);
+        if (frame != null) {
+            display(frame, true);
+        }
+    }
+
+    private void display(final BufferedImage image, final boolean recyclable) {
+        final BufferedImage shown = imagePanel.image;
+        imagePanel.image = image;
+        if (shown != null && recycled) {
+            spare.compareAndSet(null, shown);
+        }
+        recycled = recyclable;
+        /* the frame is only resized when the dimensions change, not on every frame */
+        if (shown == null || shown.getWidth() != image.getWidth() || shown.getHeight() != image.getHeight()) {
+            this.getContentPane().setPreferredSize(new Dimension(image.getWidth(), image.getHeight()));
+            this.pack();
+        }
+        imagePanel.repaint();
+    }
+
+    private static void onEventDispatchThread(final Runnable runnable) {
+        if (EventQueue.isDispatchThread()) {
+            runnable.run();
+        } else {
+            EventQueue.invokeLater(runnable);
+        }
     }
 
     private class ImagePanel extends JPanel {
@@ -70,9 +167,5 @@ public class Streamer extends JFrame {
             g.fillRect(0, 0, this.getWidth(), this.getHeight());
             g.drawImage(image, 0, 0, this);
         }
-
-        public void setImage(final BufferedImage image) {
-            this.image = image;
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToDoubleFunction;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/* The state of the SCIDOG convergence loop over an image cut into tileSize tiles, for
+ * working resolutions where full size gradient Mats do not fit. Iteration i blurs the
+ * multiplied image with a 2i+1 median, takes the omnigradient of its gray version and
+ * blurs that with a 2i+1 median again, so a tile's pixels only depend on the image
+ * within
+ *
+ *     i + Imager.SOBEL_HALO + i
+ *
+ * pixels of it. Every tile is therefore processed on a copy of itself widened by that
+ * halo, clipped to the image so that borders are extrapolated exactly as on the whole
+ * image, and only its interior is kept; the final blur widens the tiles by its own
+ * radius. The stitched results are identical to the untiled loop. Tiles are processed
+ * in parallel on the common fork-join pool with Mats leased from the worker threads'
+ * MatPools, so the per-iteration working set grows with the tile size and the pool's
+ * parallelism instead of the image size; only the multiplied image, the CV_32F sum of
+ * the merges and the final merge span the whole image. */
+public class TiledConvergence {
+
+    private final Mat        multiplied;
+    private final List<Rect> tiles;
+    private final int[]      kernelSizes;
+    private final Mat        sum;
+    private int              count;
+
+    public TiledConvergence(final Mat multiplied, final int tileSize, final int... kernelSizes) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("the tile size must be positive");
+        }
+        this.multiplied  = multiplied;
+        this.tiles       = tiles(multiplied.cols(), multiplied.rows(), tileSize);
+        this.kernelSizes = kernelSizes;
+        this.sum         = Mat.zeros(multiplied.size(), CvType.CV_32F);
+    }
+
+    /* the tiles covering a width x height image, row by row; the last row and column may be narrower */
+    public static List<Rect> tiles(final int width, final int height, final int tileSize) {
+        final List<Rect> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Rect(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    public int tileCount() {
+        return tiles.size();
+    }
+
+    /* runs convergence iteration i on every tile, adds its blurred omnigradient to the
+     * merges and returns the mean of the omnigradient before that blur */
+    public double iterate(final int iteration) {
+        final int kernelSize = 2 * iteration + 1;
+        final int halo = 2 * iteration + Imager.SOBEL_HALO;
+        final double total = forEachTile(tile -> {
+            final Rect region = expand(tile, halo);
+            final Rect interior = new Rect(tile.x - region.x, tile.y - region.y, tile.width, tile.height);
+            try (MatPool.Scope scope = MatPool.open()) {
+                final Mat crop = scope.acquire(region.height, region.width, multiplied.type());
+                final Mat source = multiplied.submat(region);
+                source.copyTo(crop);
+                source.release();
+
+                final Mat blurred = scope.acquire(crop);
+                Imgproc.medianBlur(crop, blurred, kernelSize);
+                final Mat gray = scope.acquire(region.height, region.width, CvType.CV_8U);
+                Imgproc.cvtColor(blurred, gray, Imgproc.COLOR_BGR2GRAY);
+                final Mat omnigradient = scope.acquire(gray);
+                Omnigradient.compute(gray, omnigradient, kernelSizes);
+
+                Mat kept = omnigradient.submat(interior);
+                final double tileSum = Core.sumElems(kept).val[0];
+                kept.release();
+
+                Imgproc.medianBlur(omnigradient, omnigradient, kernelSize);
+                kept = omnigradient.submat(interior);
+                final Mat merges = sum.submat(tile);
+                Core.add(merges, kept, merges, MatPool.NO_MASK, CvType.CV_32F);
+                kept.release();
+                merges.release();
+                return tileSum;
+            }
+        });
+        count++;
+        return total / ((double) multiplied.rows() * multiplied.cols());
+    }
+
+    /* writes the mean of the merges, median blurred with kernelSize, into finalMerge */
+    public Mat merge(final Mat finalMerge, final int kernelSize) {
+        if (count == 0) {
+            throw new IllegalStateException("no iterations have been run");
+        }
+        finalMerge.create(multiplied.rows(), multiplied.cols(), CvType.CV_8U);
+        final int halo = kernelSize / 2;
+        forEachTile(tile -> {
+            final Rect region = expand(tile, halo);
+            try (MatPool.Scope scope = MatPool.open()) {
+                final Mat mean = scope.acquire(region.height, region.width, CvType.CV_8U);
+                final Mat merges = sum.submat(region);
+                /* the rounding of RunningMean.mean */
+                merges.convertTo(mean, CvType.CV_8U, 1.0 / count);
+                merges.release();
+                Imgproc.medianBlur(mean, mean, kernelSize);
+
+                final Mat interior = mean.submat(new Rect(tile.x - region.x, tile.y - region.y, tile.width, tile.height));
+                final Mat target = finalMerge.submat(tile);
+                interior.copyTo(target);
+                interior.release();
+                target.release();
+                return 0;
+            }
+        });
+        return finalMerge;
+    }
+
+    public void release() {
+        sum.release();
+        count = 0;
+    }
+
+    private double forEachTile(final ToDoubleFunction<Rect> work) {
+        return ForkJoinPool.commonPool().invoke(new TileTask(tiles, work, 0, tiles.size()));
+    }
+
+    private Rect expand(final Rect tile, final int halo) {
+        final int x = Math.max(0, tile.x - halo);
+        final int y = Math.max(0, tile.y - halo);
+        return new Rect(x, y, Math.min(multiplied.cols(), tile.x + tile.width + halo) - x,
+                Math.min(multiplied.rows(), tile.y + tile.height + halo) - y);
+    }
+
+    private static class TileTask extends RecursiveTask<Double> {
+
+        private final List<Rect>             tiles;
+        private final ToDoubleFunction<Rect> work;
+        private final int                    from;
+        private final int                    to;
+
+        TileTask(final List<Rect> tiles, final ToDoubleFunction<Rect> work, final int from, final int to) {
+            this.tiles = tiles;
+            this.work  = work;
+            this.from  = from;
+            this.to    = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from == 1) {
+                return work.applyAsDouble(tiles.get(from));
+            }
+            final int middle = (from + to) >>> 1;
+            final TileTask left = new TileTask(tiles, work, from, middle);
+            left.fork();
+            final double right = new TileTask(tiles, work, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
\ No newline at end of file
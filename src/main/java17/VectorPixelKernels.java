@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/* PixelKernels on the widest short vectors of the CPU. Loaded reflectively by
+ * PixelKernels, so nothing else may refer to this class. */
+public final class VectorPixelKernels extends PixelKernels {
+
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final ByteOrder            ORDER  = ByteOrder.nativeOrder();
+
+    @Override
+    public void accumulateAbs(final ByteBuffer dx, final ByteBuffer dy, final ByteBuffer accumulator,
+            final int length) {
+        final int bound = SHORTS.loopBound(length);
+        int x = 0;
+        for (; x < bound; x += SHORTS.length()) {
+            /* clamped before taking the magnitude because |-32768| does not fit a short */
+            final ShortVector magnitudeX = ShortVector.fromByteBuffer(SHORTS, dx, 2 * x, ORDER)
+                    .max((short) -255).min((short) 255).lanewise(VectorOperators.ABS);
+            final ShortVector magnitudeY = ShortVector.fromByteBuffer(SHORTS, dy, 2 * x, ORDER)
+                    .max((short) -255).min((short) 255).lanewise(VectorOperators.ABS);
+            ShortVector.fromByteBuffer(SHORTS, accumulator, 2 * x, ORDER).add(magnitudeX).add(magnitudeY)
+                    .intoByteBuffer(accumulator, 2 * x, ORDER);
+        }
+        for (; x < length; x++) {
+            accumulator.putShort(2 * x, (short) (accumulator.getShort(2 * x)
+                    + Math.min(Math.abs(dx.getShort(2 * x)), 255) + Math.min(Math.abs(dy.getShort(2 * x)), 255)));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/* Contour's Java geometry against the Imgproc functions it replaces */
+public class ContourTest {
+
+    private static final double TOLERANCE = 1e-7;
+    /* scaled coordinates are rounded to float, and the central moments amplify that by cancellation */
+    private static final double SCALED_TOLERANCE = 1e-6;
+
+    @BeforeAll
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void randomPolygons() {
+        final Random random = new Random(42);
+        for (int x = 0; x < 200; x++) {
+            assertMatchesImgproc(starPolygon(random, 3 + random.nextInt(200)));
+        }
+    }
+
+    @Test
+    public void randomPointClouds() {
+        final Random random = new Random(7);
+        for (int x = 0; x < 200; x++) {
+            final int[] points = new int[2 * (1 + random.nextInt(100))];
+            for (int p = 0; p < points.length; p++) {
+                points[p] = random.nextInt(64);
+            }
+            assertMatchesImgproc(points);
+        }
+    }
+
+    @Test
+    public void foundContours() {
+        final Mat mask = Mat.zeros(480, 640, CvType.CV_8UC1);
+        Imgproc.ellipse(mask, new Point(300, 220), new Size(180, 120), 20, 0, 360, new Scalar(255), -1);
+        Imgproc.rectangle(mask, new Point(20, 20), new Point(120, 80), new Scalar(255), -1);
+        Imgproc.line(mask, new Point(500, 400), new Point(620, 460), new Scalar(255), 1);
+        final List<MatOfPoint> found = new ArrayList<>();
+        Imgproc.findContours(mask, found, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_NONE);
+        assertEquals(3, found.size());
+        for (final MatOfPoint edges : found) {
+            final int[] points = new int[2 * (int) edges.total()];
+            edges.get(0, 0, points);
+            assertMatchesImgproc(points);
+        }
+    }
+
+    @Test
+    public void collinearPoints() {
+        assertMatchesImgproc(new int[] {0, 0, 1, 1, 2, 2, 3, 3, 4, 4});
+        assertMatchesImgproc(new int[] {0, 0, 5, 0, 10, 0, 5, 0});
+        assertMatchesImgproc(new int[] {0, 0, 5, 0, 10, 0, 10, 5, 10, 10, 5, 10, 0, 10, 0, 5});
+        assertMatchesImgproc(new int[] {3, 3, 3, 3, 3, 3});
+    }
+
+    @Test
+    public void degenerateContours() {
+        assertMatchesImgproc(new int[] {4, 7});
+        assertMatchesImgproc(new int[] {4, 7, 12, 1});
+        assertMatchesImgproc(new int[] {4, 7, 4, 7});
+        final Contour point = new Contour(new float[] {4, 7});
+        assertEquals(0, point.area());
+        assertEquals(0, point.perimeter());
+        assertEquals(1, point.convexHull().size());
+        final Contour segment = new Contour(new float[] {4, 7, 12, 1});
+        assertEquals(0, segment.area());
+        assertEquals(20, segment.perimeter(), TOLERANCE);
+        assertEquals(2, segment.convexHull().size());
+    }
+
+    @Test
+    public void scaledPropertiesMatchRecomputed() {
+        final Random random = new Random(3);
+        for (int x = 0; x < 50; x++) {
+            final float[] coordinates = toFloats(starPolygon(random, 3 + random.nextInt(100)));
+            final Contour contour = new Contour(coordinates);
+            contour.area();
+            contour.perimeter();
+            contour.moments();
+            contour.centroid();
+            contour.convexHull().area();
+            final double factor = 0.25 + 4 * random.nextDouble();
+            final Contour scaled = contour.scale(factor);
+            final Contour recomputed = new Contour(scaled.coordinates().clone());
+            assertClose(recomputed.area(), scaled.area(), SCALED_TOLERANCE);
+            assertClose(recomputed.perimeter(), scaled.perimeter(), SCALED_TOLERANCE);
+            assertClose(recomputed.centroid().x, scaled.centroid().x, SCALED_TOLERANCE);
+            assertClose(recomputed.centroid().y, scaled.centroid().y, SCALED_TOLERANCE);
+            assertClose(recomputed.convexHullArea(), scaled.convexHullArea(), SCALED_TOLERANCE);
+            assertMomentsClose(recomputed.moments(), scaled.moments(), SCALED_TOLERANCE);
+        }
+    }
+
+    /* compares area, perimeter, moments and the convex hull of x0, y0, x1, y1, ... with Imgproc */
+    private static void assertMatchesImgproc(final int[] points) {
+        final MatOfPoint edges = new MatOfPoint();
+        edges.alloc(points.length / 2);
+        edges.put(0, 0, points);
+        final MatOfPoint2f edges2f = new MatOfPoint2f();
+        edges.convertTo(edges2f, CvType.CV_32F);
+        final Contour contour = new Contour(toFloats(points));
+
+        assertClose(Imgproc.contourArea(edges), contour.area());
+        assertClose(Imgproc.arcLength(edges2f, true), contour.perimeter());
+        assertMomentsClose(Imgproc.moments(edges), contour.moments(), TOLERANCE);
+
+        final MatOfInt indices = new MatOfInt();
+        Imgproc.convexHull(edges, indices);
+        final TreeSet<String> expected = new TreeSet<>();
+        for (final int index : indices.toArray()) {
+            expected.add(points[2 * index] + "," + points[2 * index + 1]);
+        }
+        final Contour hull = contour.convexHull();
+        final TreeSet<String> actual = new TreeSet<>();
+        for (int p = 0; p < hull.size(); p++) {
+            actual.add(Math.round(hull.x(p)) + "," + Math.round(hull.y(p)));
+        }
+        assertEquals(expected, actual);
+        assertEquals(indices.total(), hull.size());
+        final MatOfPoint hullEdges = new MatOfPoint();
+        hullEdges.alloc(hull.size());
+        hullEdges.put(0, 0, toInts(hull.coordinates()));
+        assertClose(Imgproc.contourArea(hullEdges), hull.area());
+
+        hullEdges.release();
+        indices.release();
+        edges2f.release();
+        edges.release();
+        contour.release();
+    }
+
+    private static void assertMomentsClose(final Moments expected, final Moments actual, final double tolerance) {
+        assertClose(expected.m00, actual.m00, tolerance);
+        assertClose(expected.m10, actual.m10, tolerance);
+        assertClose(expected.m01, actual.m01, tolerance);
+        assertClose(expected.m20, actual.m20, tolerance);
+        assertClose(expected.m11, actual.m11, tolerance);
+        assertClose(expected.m02, actual.m02, tolerance);
+        assertClose(expected.m30, actual.m30, tolerance);
+        assertClose(expected.m21, actual.m21, tolerance);
+        assertClose(expected.m12, actual.m12, tolerance);
+        assertClose(expected.m03, actual.m03, tolerance);
+        assertClose(expected.mu20, actual.mu20, tolerance);
+        /* |mu11| <= sqrt(mu20 * mu02), so it is compared on their scale rather than its own */
+        assertClose(expected.mu11, actual.mu11, tolerance, Math.max(expected.mu20, expected.mu02));
+        assertClose(expected.mu02, actual.mu02, tolerance);
+        assertClose(expected.nu20, actual.nu20, tolerance);
+        assertClose(expected.nu11, actual.nu11, tolerance, Math.max(expected.nu20, expected.nu02));
+        assertClose(expected.nu02, actual.nu02, tolerance);
+    }
+
+    private static void assertClose(final double expected, final double actual) {
+        assertClose(expected, actual, TOLERANCE);
+    }
+
+    private static void assertClose(final double expected, final double actual, final double tolerance) {
+        assertClose(expected, actual, tolerance, Math.abs(expected));
+    }
+
+    private static void assertClose(final double expected, final double actual, final double tolerance,
+            final double magnitude) {
+        assertEquals(expected, actual, tolerance * Math.max(1, magnitude));
+    }
+
+    /* a simple polygon: integer points at increasing angles and random radii around a center */
+    private static int[] starPolygon(final Random random, final int n) {
+        final double[] angles = new double[n];
+        for (int x = 0; x < n; x++) {
+            angles[x] = 2 * Math.PI * random.nextDouble();
+        }
+        Arrays.sort(angles);
+        final int[] points = new int[2 * n];
+        for (int x = 0; x < n; x++) {
+            final double radius = 20 + 480 * random.nextDouble();
+            points[2 * x] = (int) Math.round(1000 + radius * Math.cos(angles[x]));
+            points[2 * x + 1] = (int) Math.round(1000 + radius * Math.sin(angles[x]));
+        }
+        return points;
+    }
+
+    private static float[] toFloats(final int[] points) {
+        final float[] floats = new float[points.length];
+        for (int x = 0; x < points.length; x++) {
+            floats[x] = points[x];
+        }
+        return floats;
+    }
+
+    private static int[] toInts(final float[] coordinates) {
+        final int[] ints = new int[coordinates.length];
+        for (int x = 0; x < coordinates.length; x++) {
+            ints[x] = Math.round(coordinates[x]);
+        }
+        return ints;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/* every set of a sweep against Segmenter.segment run on that set alone */
+public class ParameterSweepTest {
+
+    @BeforeAll
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void gridMatchesSegmenter() throws Exception {
+        final Mat src = Imgcodecs.imread(new File(getClass().getResource("melanoma.jpg").toURI()).getPath());
+        final List<SegmenterOptions> sets = new ArrayList<>();
+        for (final int size : new int[] {384, 256}) {
+            for (final int[] bank : new int[][] {Omnigradient.kernelSizes(3, 11, true),
+                    Omnigradient.kernelSizes(5, 15, false)}) {
+                for (final double threshold : new double[] {0.97, 0.98, 0.99, 0.995}) {
+                    /* a cap of 3 stops most sets before they converge */
+                    for (final int maxIterations : new int[] {0, 3}) {
+                        sets.add(SegmenterOptions.DEFAULT.withMaxSize(size, size).withKernelSizes(bank)
+                                .withConvergenceThreshold(threshold).withMaxIterations(maxIterations));
+                    }
+                }
+            }
+        }
+        final List<Contour> swept = ParameterSweep.segment(src, sets);
+        assertEquals(sets.size(), swept.size());
+        for (int x = 0; x < sets.size(); x++) {
+            final Contour alone = alone(src, sets.get(x));
+            if (alone == null) {
+                assertNull(swept.get(x), "set " + x);
+            } else {
+                assertArrayEquals(alone.coordinates(), swept.get(x).coordinates(), "set " + x);
+            }
+        }
+        src.release();
+    }
+
+    private static Contour alone(final Mat src, final SegmenterOptions options) throws SegmentationException {
+        try {
+            return Segmenter.segment(src, options);
+        } catch (SegmentationException e) {
+            if (e.reason != SegmentationException.Reason.NO_CONTOUR) {
+                throw e;
+            }
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* PercentileSketch and Stats.percentilesFromHistogram against the sorted percentiles */
+public class PercentileSketchTest {
+
+    private static final double[] PERCENTAGES = {0, 0.001, 0.01, 0.1, 0.25, 0.333, 0.5, 0.75, 0.9, 0.99, 0.999, 1};
+
+    @BeforeAll
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void bytes() {
+        final Random random = new Random(1);
+        for (final int channels : new int[] {1, 3}) {
+            final Mat mat = new Mat(97, 131, CvType.CV_8UC(channels));
+            final byte[] data = new byte[(int) mat.total() * channels];
+            random.nextBytes(data);
+            mat.put(0, 0, data);
+            final double[][] values = new double[channels][(int) mat.total()];
+            final long[][] histograms = new long[channels][256];
+            for (int x = 0; x < data.length; x++) {
+                values[x % channels][x / channels] = data[x] & 0xFF;
+                histograms[x % channels][data[x] & 0xFF]++;
+            }
+            final double[][] sorted = Stats.percentiles(values, PERCENTAGES);
+            final PercentileSketch[] sketches = PercentileSketch.of(mat);
+            for (int c = 0; c < channels; c++) {
+                assertArrayEquals(sorted[c], Stats.percentilesFromHistogram(histograms[c], 0, 1, PERCENTAGES), 0);
+                assertArrayEquals(sorted[c], sketches[c].percentiles(PERCENTAGES), 0);
+            }
+            assertArrayEquals(sorted, Stats.percentiles(mat, PERCENTAGES));
+        }
+    }
+
+    @Test
+    public void unsignedShorts() {
+        final Random random = new Random(2);
+        final Mat mat = new Mat(211, 89, CvType.CV_16UC1);
+        final short[] data = new short[(int) mat.total()];
+        final double[] values = new double[data.length];
+        final long[] histogram = new long[65536];
+        for (int x = 0; x < data.length; x++) {
+            /* clustered at the top, where a signed read would go wrong */
+            final int value = 65535 - random.nextInt(2000);
+            data[x] = (short) value;
+            values[x] = value;
+            histogram[value]++;
+        }
+        mat.put(0, 0, data);
+        final double[] sorted = Stats.percentiles(new double[][] {values}, PERCENTAGES)[0];
+        assertArrayEquals(sorted, Stats.percentilesFromHistogram(histogram, 0, 1, PERCENTAGES), 0);
+        assertArrayEquals(sorted, PercentileSketch.of(mat)[0].percentiles(PERCENTAGES), 0);
+    }
+
+    @Test
+    public void offsetInts() {
+        final Random random = new Random(3);
+        final int offset = 100_000_000;
+        for (final int channels : new int[] {1, 2}) {
+            final Mat mat = new Mat(123, 77, CvType.CV_32SC(channels));
+            final int[] data = new int[(int) mat.total() * channels];
+            final double[][] values = new double[channels][(int) mat.total()];
+            final long[][] histograms = new long[channels][10_001];
+            for (int x = 0; x < data.length; x++) {
+                /* consecutive integers a float cannot tell apart */
+                final int value = random.nextInt(10_001);
+                data[x] = offset + value;
+                values[x % channels][x / channels] = offset + value;
+                histograms[x % channels][value]++;
+            }
+            mat.put(0, 0, data);
+            final double[][] sorted = Stats.percentiles(values, PERCENTAGES);
+            final PercentileSketch[] sketches = PercentileSketch.of(mat);
+            for (int c = 0; c < channels; c++) {
+                assertArrayEquals(sorted[c], Stats.percentilesFromHistogram(histograms[c], offset, 1, PERCENTAGES), 0);
+                assertArrayEquals(sorted[c], sketches[c].percentiles(PERCENTAGES), 0);
+            }
+        }
+    }
+
+    @Test
+    public void mergedSketchesMatchOneSketch() {
+        final Random random = new Random(4);
+        final Mat mat = new Mat(64, 64, CvType.CV_8UC1);
+        final byte[] data = new byte[(int) mat.total()];
+        random.nextBytes(data);
+        mat.put(0, 0, data);
+        final PercentileSketch merged = PercentileSketch.forDepth(CvType.CV_8U);
+        for (int row = 0; row < mat.rows(); row += 16) {
+            final PercentileSketch part = PercentileSketch.forDepth(CvType.CV_8U);
+            PercentileSketch.addAll(new PercentileSketch[] {part}, mat.rowRange(row, row + 16));
+            merged.merge(part);
+        }
+        assertArrayEquals(PercentileSketch.of(mat)[0].percentiles(PERCENTAGES), merged.percentiles(PERCENTAGES), 0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+public class SegmentStoreTest {
+
+    /* small segments so the tests cross segment boundaries */
+    private static final long SEGMENT_BYTES = 1 << 16;
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void encodeMatchesNaiveRuns() {
+        final Random random = new Random(42);
+        for (int x = 0; x < 300; x++) {
+            final Mat mask = randomMask(random, 1 + random.nextInt(97), 1 + random.nextInt(131));
+            assertArrayEquals(naiveRuns(bytes(mask)), SegmentStore.encode(mask));
+            mask.release();
+        }
+    }
+
+    @Test
+    public void encodeUniformMasks() {
+        final Mat background = Mat.zeros(17, 23, CvType.CV_8U);
+        assertArrayEquals(new int[] {17 * 23}, SegmentStore.encode(background));
+        final Mat foreground = Mat.ones(17, 23, CvType.CV_8U);
+        assertArrayEquals(new int[] {0, 17 * 23}, SegmentStore.encode(foreground));
+        background.put(16, 22, 255);
+        assertArrayEquals(new int[] {17 * 23 - 1, 1}, SegmentStore.encode(background));
+        background.release();
+        foreground.release();
+    }
+
+    @Test
+    public void masksAndContoursRoundTrip() throws IOException {
+        final Random random = new Random(7);
+        final List<Mat> masks = new ArrayList<>();
+        final List<List<Contour>> contours = new ArrayList<>();
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            for (int x = 0; x < 100; x++) {
+                final Mat mask = randomMask(random, 1 + random.nextInt(120), 1 + random.nextInt(120));
+                final List<Contour> imageContours = randomContours(random);
+                store.append("image-" + x, mask, imageContours);
+                masks.add(mask);
+                contours.add(imageContours);
+            }
+            assertTrue(store.bytes() > SEGMENT_BYTES);
+            for (int x = 0; x < masks.size(); x++) {
+                assertStored(store.get("image-" + x), masks.get(x), contours.get(x));
+            }
+        }
+        try (SegmentStore store = SegmentStore.readOnly(directory)) {
+            assertEquals(masks.size(), store.records());
+            int x = 0;
+            for (final SegmentStore.Entry entry : store) {
+                assertEquals("image-" + x, entry.id);
+                assertStored(entry, masks.get(x), contours.get(x));
+                x++;
+            }
+            assertEquals(masks.size(), x);
+        }
+        masks.forEach(Mat::release);
+    }
+
+    @Test
+    public void submatMaskRoundTrips() throws IOException {
+        final Mat mask = randomMask(new Random(3), 64, 64);
+        final Mat roi = mask.submat(new Rect(5, 9, 37, 21));
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            store.append("roi", roi, new ArrayList<>());
+            assertStored(store.get("roi"), roi, new ArrayList<>());
+        }
+        roi.release();
+        mask.release();
+    }
+
+    @Test
+    public void contoursWithoutMask() throws IOException {
+        final List<Contour> contours = randomContours(new Random(5));
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            store.append("contours", contours);
+            final SegmentStore.Entry entry = store.get("contours");
+            assertFalse(entry.hasMask());
+            assertTrue(entry.mask().empty());
+            assertContours(contours, entry.contours());
+        }
+    }
+
+    @Test
+    public void latestAppendWins() throws IOException {
+        final Mat first = randomMask(new Random(11), 10, 10);
+        final Mat second = randomMask(new Random(12), 20, 10);
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            store.append("image", first, new ArrayList<>());
+            store.append("image", second, new ArrayList<>());
+            assertEquals(2, store.records());
+            assertEquals(1, store.ids().size());
+            assertStored(store.get("image"), second, new ArrayList<>());
+        }
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void truncatedIndexIsRebuilt() throws IOException {
+        final List<Mat> masks = fill(40);
+        final File index = new File(directory, "segments.idx");
+        final long length = index.length();
+        /* cut the index in the middle of an entry, well before its end */
+        try (RandomAccessFile file = new RandomAccessFile(index, "rw")) {
+            file.setLength(length / 3 + 5);
+        }
+        assertRecovered(masks);
+        assertEquals(length, index.length());
+        masks.forEach(Mat::release);
+    }
+
+    @Test
+    public void deletedIndexIsRebuilt() throws IOException {
+        final List<Mat> masks = fill(40);
+        final File index = new File(directory, "segments.idx");
+        final long length = index.length();
+        Files.delete(index.toPath());
+        assertRecovered(masks);
+        assertEquals(length, index.length());
+        masks.forEach(Mat::release);
+    }
+
+    @Test
+    public void indexEntriesPastTheCommittedEndAreDropped() throws IOException {
+        final List<Mat> masks = fill(10);
+        final File index = new File(directory, "segments.idx");
+        final byte[] valid = Files.readAllBytes(index.toPath());
+        /* an entry whose record never committed, as left by a crash between the two writes */
+        final byte[] id = "uncommitted".getBytes(StandardCharsets.UTF_8);
+        final byte[] torn = ByteBuffer.allocate(4 + id.length + 8).putInt(id.length).put(id)
+                .putLong(new File(directory, "segments.dat").length() + 1024).array();
+        final byte[] corrupted = Arrays.copyOf(valid, valid.length + torn.length);
+        System.arraycopy(torn, 0, corrupted, valid.length, torn.length);
+        Files.write(index.toPath(), corrupted);
+        assertRecovered(masks);
+        try (SegmentStore store = SegmentStore.readOnly(directory)) {
+            assertFalse(store.contains("uncommitted"));
+        }
+        assertEquals(valid.length, index.length());
+        masks.forEach(Mat::release);
+    }
+
+    @Test
+    public void segmenterMaskRoundTrips() throws Exception {
+        final Mat src = Imgcodecs.imread(new File(getClass().getResource("melanoma.jpg").toURI()).getPath());
+        final Segmenter.Result result = Segmenter.segmentResult(src, SegmenterOptions.DEFAULT, true);
+        assertNotNull(result.mask);
+        assertEquals(Math.round(src.cols() * result.scaleFactor), result.mask.cols(), 1);
+        assertEquals(Math.round(src.rows() * result.scaleFactor), result.mask.rows(), 1);
+        try (SegmentStore store = new SegmentStore(directory)) {
+            store.append("melanoma", result);
+            final SegmentStore.Entry entry = store.get("melanoma");
+            assertStored(entry, result.mask, result.contours);
+            assertEquals(Core.countNonZero(result.mask), entry.area());
+        }
+        result.mask.release();
+        src.release();
+    }
+
+    /* appends count random masks and closes the store */
+    private List<Mat> fill(final int count) throws IOException {
+        final Random random = new Random(count);
+        final List<Mat> masks = new ArrayList<>();
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            for (int x = 0; x < count; x++) {
+                final Mat mask = randomMask(random, 1 + random.nextInt(80), 1 + random.nextInt(80));
+                store.append("image-" + x, mask, new ArrayList<>());
+                masks.add(mask);
+            }
+        }
+        return masks;
+    }
+
+    /* reopens the store for appending, so the index is repaired, then checks every record read-only */
+    private void assertRecovered(final List<Mat> masks) throws IOException {
+        try (SegmentStore store = new SegmentStore(directory, false, SEGMENT_BYTES)) {
+            assertEquals(masks.size(), store.ids().size());
+        }
+        try (SegmentStore store = SegmentStore.readOnly(directory)) {
+            assertEquals(masks.size(), store.records());
+            assertEquals(masks.size(), store.ids().size());
+            for (int x = 0; x < masks.size(); x++) {
+                assertStored(store.get("image-" + x), masks.get(x), new ArrayList<>());
+            }
+        }
+    }
+
+    private static void assertStored(final SegmentStore.Entry entry, final Mat mask, final List<Contour> contours) {
+        assertNotNull(entry);
+        assertEquals(mask.rows(), entry.rows);
+        assertEquals(mask.cols(), entry.cols);
+        final Mat decoded = entry.mask();
+        assertArrayEquals(bytes(mask), bytes(decoded));
+        decoded.release();
+        assertEquals(Core.countNonZero(mask), entry.area());
+        assertContours(contours, entry.contours());
+    }
+
+    private static void assertContours(final List<Contour> expected, final List<Contour> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int x = 0; x < expected.size(); x++) {
+            assertArrayEquals(expected.get(x).coordinates(), actual.get(x).coordinates());
+        }
+    }
+
+    /* 0 or 255 pixels in runs of random lengths, some longer than the 8 byte words encode skips */
+    private static Mat randomMask(final Random random, final int rows, final int cols) {
+        final byte[] pixels = new byte[rows * cols];
+        int x = 0;
+        boolean foreground = random.nextBoolean();
+        while (x < pixels.length) {
+            final int run = random.nextBoolean() ? random.nextInt(4) : random.nextInt(40);
+            Arrays.fill(pixels, x, Math.min(pixels.length, x + run), foreground ? (byte) 255 : 0);
+            x += run;
+            foreground = !foreground;
+        }
+        final Mat mask = new Mat(rows, cols, CvType.CV_8U);
+        mask.put(0, 0, pixels);
+        return mask;
+    }
+
+    private static List<Contour> randomContours(final Random random) {
+        final List<Contour> contours = new ArrayList<>();
+        for (int x = random.nextInt(4); x > 0; x--) {
+            final float[] coordinates = new float[2 * random.nextInt(50)];
+            for (int p = 0; p < coordinates.length; p++) {
+                coordinates[p] = 1000 * random.nextFloat();
+            }
+            contours.add(new Contour(coordinates));
+        }
+        return contours;
+    }
+
+    private static byte[] bytes(final Mat mask) {
+        final byte[] pixels = new byte[(int) mask.total()];
+        final Mat continuous = mask.isContinuous() ? mask : mask.clone();
+        continuous.get(0, 0, pixels);
+        return pixels;
+    }
+
+    private static int[] naiveRuns(final byte[] pixels) {
+        final List<Integer> runs = new ArrayList<>();
+        boolean foreground = false;
+        int run = 0;
+        for (final byte pixel : pixels) {
+            if ((pixel != 0) != foreground) {
+                runs.add(run);
+                foreground = !foreground;
+                run = 0;
+            }
+            run++;
+        }
+        runs.add(run);
+        return runs.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 Benjamin Alexander Albert
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/* tiled convergence must give the contours of the untiled loop, which is why
+ * SegmenterOptions.parameters and so the cache key leave tileSize out */
+public class TiledConvergenceTest {
+
+    @BeforeAll
+    public static void loadOpenCV() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    public void tilesCoverTheImageOnce() {
+        final List<Rect> tiles = TiledConvergence.tiles(300, 220, 149);
+        assertEquals(6, tiles.size());
+        long area = 0;
+        for (final Rect tile : tiles) {
+            area += tile.area();
+        }
+        assertEquals(300 * 220, area);
+        assertEquals(2, tiles.get(2).width);
+        assertEquals(71, tiles.get(5).height);
+    }
+
+    @Test
+    public void syntheticLesion() throws SegmentationException {
+        final Mat src = syntheticLesion(new Random(5), 300, 220);
+        /* 64 leaves a 44 x 28 corner, 149 a 2 pixel column and 218 a 2 pixel row */
+        for (final int tileSize : new int[] {64, 149, 218}) {
+            assertSameContours(src, SegmenterOptions.DEFAULT.withRegions(RegionExtractor.ALL), tileSize);
+        }
+        src.release();
+    }
+
+    @Test
+    public void sampleImage() throws Exception {
+        final Mat src = Imgcodecs.imread(new File(getClass().getResource("naevus.jpg").toURI()).getPath());
+        assertSameContours(src, SegmenterOptions.DEFAULT, 157);
+        src.release();
+    }
+
+    private static void assertSameContours(final Mat src, final SegmenterOptions options, final int tileSize)
+            throws SegmentationException {
+        final Segmenter.Result untiled = Segmenter.segmentResult(src, options);
+        final Segmenter.Result tiled = Segmenter.segmentResult(src, options.withTiles(tileSize));
+        assertTrue(options.withTiles(tileSize).tiled(src.cols(), src.rows()), "the image must span several tiles");
+        assertEquals(untiled.iterations, tiled.iterations, "iterations with tiles of " + tileSize);
+        assertEquals(untiled.contours.size(), tiled.contours.size(), "contours with tiles of " + tileSize);
+        for (int c = 0; c < untiled.contours.size(); c++) {
+            assertArrayEquals(untiled.contours.get(c).coordinates(), tiled.contours.get(c).coordinates(),
+                    "contour " + c + " with tiles of " + tileSize);
+        }
+    }
+
+    /* a dark irregular blob and a few specks on noisy, unevenly lit skin */
+    private static Mat syntheticLesion(final Random random, final int width, final int height) {
+        final Mat src = new Mat(height, width, CvType.CV_8UC3);
+        final byte[] pixels = new byte[width * height * 3];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int light = 170 + 40 * x / width + random.nextInt(13) - 6;
+                pixels[3 * (y * width + x)]     = (byte) (light - 50);
+                pixels[3 * (y * width + x) + 1] = (byte) (light - 25);
+                pixels[3 * (y * width + x) + 2] = (byte) light;
+            }
+        }
+        src.put(0, 0, pixels);
+        final Point[] outline = new Point[24];
+        for (int p = 0; p < outline.length; p++) {
+            final double angle = 2 * Math.PI * p / outline.length;
+            final double radius = 55 + random.nextInt(25);
+            outline[p] = new Point(150 + radius * Math.cos(angle), 105 + 0.8 * radius * Math.sin(angle));
+        }
+        Imgproc.fillPoly(src, List.of(new MatOfPoint(outline)), new Scalar(60, 50, 90));
+        for (int s = 0; s < 5; s++) {
+            Imgproc.circle(src, new Point(20 + random.nextInt(width - 40), 20 + random.nextInt(height - 40)),
+                    3 + random.nextInt(5), new Scalar(80, 70, 110), -1);
+        }
+        Imgproc.GaussianBlur(src, src, new Size(5, 5), 0);
+        return src;
+    }
+}
\ No newline at end of file